@@ -0,0 +1,107 @@
+package org.example;
+
+import org.example.model.WeatherData;
+import org.example.model.WeatherMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+// Data generation and scratch directories shared by the benchmarks
+public final class BenchmarkData {
+
+    private static final String[] BATTERY_STATUSES = {"LOW", "MEDIUM", "HIGH"};
+
+    private BenchmarkData() {
+    }
+
+    public static WeatherMessage message(long stationId, long sNo, long timeStamp, Random random) {
+        return new WeatherMessage(
+                stationId,
+                sNo,
+                BATTERY_STATUSES[random.nextInt(BATTERY_STATUSES.length)],
+                timeStamp,
+                new WeatherData((byte) random.nextInt(101), (short) (random.nextInt(80) - 20), (short) random.nextInt(150))
+        );
+    }
+
+    // Sequence of station ids in [0, keyCount): "uniform", or "zipfian" where low ids are the hot stations
+    public static long[] keys(int keyCount, String distribution, int length, long seed) {
+        Random random = new Random(seed);
+        long[] keys = new long[length];
+        switch (distribution) {
+            case "uniform" -> {
+                for (int i = 0; i < length; i++) keys[i] = random.nextInt(keyCount);
+            }
+            case "zipfian" -> {
+                double[] cumulative = new double[keyCount];
+                double sum = 0;
+                for (int rank = 0; rank < keyCount; rank++) {
+                    sum += 1.0 / Math.pow(rank + 1, 0.99);
+                    cumulative[rank] = sum;
+                }
+                for (int i = 0; i < length; i++) {
+                    int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                    keys[i] = index >= 0 ? index : Math.min(-index - 1, keyCount - 1);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown key distribution: " + distribution);
+        }
+        return keys;
+    }
+
+    // Writes one value per station and waits until all of them are written
+    public static long load(BitCask bitCask, int keyCount, long firstTimeStamp, Random random) {
+        long timeStamp = firstTimeStamp;
+        CompletableFuture<?>[] writes = new CompletableFuture<?>[keyCount];
+        for (int key = 0; key < keyCount; key++) {
+            writes[key] = bitCask.put(message(key, key, timeStamp++, random));
+        }
+        CompletableFuture.allOf(writes).join();
+        return timeStamp;
+    }
+
+    // Value layout used before the versioned format, see WeatherMessageCodec
+    public static byte[] encodeVersion0(WeatherMessage message) {
+        byte[] batteryStatus = message.battery_status().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(3 * Long.BYTES + Integer.BYTES + batteryStatus.length + Byte.BYTES + 2 * Short.BYTES)
+                .putLong(message.station_id())
+                .putLong(message.s_no())
+                .putInt(batteryStatus.length)
+                .put(batteryStatus)
+                .putLong(message.status_timestamp())
+                .put(message.weather().humidity())
+                .putShort(message.weather().temperature())
+                .putShort(message.weather().wind_speed())
+                .array();
+    }
+
+    public static Path createDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix);
+    }
+
+    public static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) return;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    public static void copy(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : paths.toList()) {
+                if (path.equals(source)) continue; // target already exists
+                Files.copy(path, target.resolve(source.relativize(path).toString()));
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.example;
+
+import org.example.model.WeatherMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Read and write path of BitCaskImp over a preloaded store.
+// put does not wait for its write, so in steady state it measures how fast the writer drains the queue
+// (building the message is included). Run with -prof gc for allocations per operation.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitCaskBenchmark {
+
+    private static final int SEQUENCE_LENGTH = 1 << 16;
+
+    @Param({"10000", "100000"})
+    private int keyCount;
+
+    @Param({"uniform", "zipfian"})
+    private String keyDistribution;
+
+    @Param({"NONE", "BATCH"})
+    private DurabilityPolicy durability;
+
+    private Path directory;
+    private BitCaskImp bitCask;
+    private long[] keys;
+    private long nextTimeStamp;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final Random random = new Random();
+        private int next;
+        private long timeStamp;
+
+        @Setup(Level.Iteration)
+        public void setUp(BitCaskBenchmark benchmark) {
+            // Newer than everything loaded, so every put replaces the current value
+            timeStamp = Math.max(timeStamp, benchmark.nextTimeStamp);
+            next = random.nextInt(SEQUENCE_LENGTH);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = BenchmarkData.createDirectory("bitcask-benchmark");
+        bitCask = new BitCaskImp(directory.toString(), durability, 1000);
+        nextTimeStamp = BenchmarkData.load(bitCask, keyCount, System.currentTimeMillis(), new Random(42));
+        keys = BenchmarkData.keys(keyCount, keyDistribution, SEQUENCE_LENGTH, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        bitCask.close();
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    public WeatherMessage get(Cursor cursor) {
+        return bitCask.get(keys[cursor.next++ & (SEQUENCE_LENGTH - 1)]);
+    }
+
+    @Benchmark
+    public CompletableFuture<Void> put(Cursor cursor) {
+        long key = keys[cursor.next++ & (SEQUENCE_LENGTH - 1)];
+        return bitCask.put(BenchmarkData.message(key, cursor.next, cursor.timeStamp++, cursor.random));
+    }
+}
@@ -0,0 +1,102 @@
+package org.example;
+
+import org.example.model.WeatherMessageCodec;
+import org.example.utils.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.example.Constants.*;
+
+// One unthrottled Compactor pass over a copy of a store with the given share of dead bytes.
+// Every invocation starts from a fresh copy of the same template store.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CompactorBenchmark {
+
+    private static final int WRITE_CHUNK = 1000;
+
+    @Param({"10", "50"})
+    private int segmentCount;
+
+    @Param({"0.5", "0.9"})
+    private double garbageRatio;
+
+    private Path template;
+    private Path directory;
+    private SegmentManager segmentManager;
+    private Compactor compactor;
+
+    @Setup(Level.Trial)
+    public void setUpTemplate() throws IOException {
+        template = BenchmarkData.createDirectory("compactor-template");
+        File hintsDir = new File(template.toFile(), HINTS_DIR);
+
+        // Records per segment are roughly constant, rewrite a key range small enough to leave the requested garbage
+        int recordsPerSegment = FILE_THRESHOLD / (NUM_BYTES_VALUE_WRITE_START_AFTER + WeatherMessageCodec.ENCODED_SIZE);
+        long liveKeys = Math.max(1, Math.round(segmentCount * recordsPerSegment * (1 - garbageRatio)));
+        BitCaskImp bitCask = new BitCaskImp(template.toString(), DurabilityPolicy.NONE, 1000);
+        Random random = new Random(42);
+        long timeStamp = System.currentTimeMillis();
+        long sNo = 0;
+        while (countHintFiles(hintsDir) <= segmentCount) {
+            CompletableFuture<?>[] writes = new CompletableFuture<?>[WRITE_CHUNK];
+            for (int i = 0; i < WRITE_CHUNK; i++) {
+                writes[i] = bitCask.put(BenchmarkData.message(sNo % liveKeys, sNo, timeStamp++, random));
+                sNo++;
+            }
+            CompletableFuture.allOf(writes).join();
+        }
+        bitCask.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp() throws IOException {
+        directory = BenchmarkData.createDirectory("compactor-benchmark");
+        BenchmarkData.copy(template, directory);
+        File segmentsDir = new File(directory.toFile(), SEGMENTS_DIR);
+        File hintsDir = new File(directory.toFile(), HINTS_DIR);
+        File[] hintFiles = hintsDir.listFiles((dir, name) -> name.endsWith(HINT_FILE_EXTENSION));
+        Arrays.sort(hintFiles);
+
+        segmentManager = new SegmentManager(segmentsDir, hintsDir);
+        KeyDir keyDir = new KeyDir();
+        new HintFileRecovery(segmentManager, keyDir).recover(hintFiles);
+        // The newest segment plays the active one, as in a running store
+        int activeSegmentId = segmentManager.idOf(segmentManager.segmentFile(
+                Utils.removeExtension(hintFiles[hintFiles.length - 1].getName())));
+        compactor = new Compactor(keyDir, segmentManager, () -> activeSegmentId, Long.MAX_VALUE, 0.0, Long.MAX_VALUE / 4);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        compactor.stopCompaction();
+        segmentManager.close();
+        BenchmarkData.delete(directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTemplate() throws IOException {
+        BenchmarkData.delete(template);
+    }
+
+    @Benchmark
+    public void merge() {
+        compactor.compactFiles();
+    }
+
+    private static int countHintFiles(File hintsDir) {
+        String[] names = hintsDir.list((dir, name) -> name.endsWith(HINT_FILE_EXTENSION));
+        return names == null ? 0 : names.length;
+    }
+}
@@ -0,0 +1,80 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.example.Constants.*;
+
+// Rebuilding the KeyDir from N hint files, as done on every startup
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecoveryBenchmark {
+
+    private static final int WRITE_CHUNK = 1000;
+
+    @Param({"10", "100"})
+    private int hintFileCount;
+
+    @Param({"1000", "100000"})
+    private int keyCount;
+
+    private Path directory;
+    private File segmentsDir;
+    private File hintsDir;
+    private File[] hintFiles;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = BenchmarkData.createDirectory("recovery-benchmark");
+        segmentsDir = new File(directory.toFile(), SEGMENTS_DIR);
+        hintsDir = new File(directory.toFile(), HINTS_DIR);
+
+        // Keep writing over the key range until the writer has rolled enough segments
+        BitCaskImp bitCask = new BitCaskImp(directory.toString(), DurabilityPolicy.NONE, 1000);
+        Random random = new Random(42);
+        long timeStamp = System.currentTimeMillis();
+        long sNo = 0;
+        while (countHintFiles() < hintFileCount) {
+            CompletableFuture<?>[] writes = new CompletableFuture<?>[WRITE_CHUNK];
+            for (int i = 0; i < WRITE_CHUNK; i++) {
+                writes[i] = bitCask.put(BenchmarkData.message(sNo % keyCount, sNo, timeStamp++, random));
+                sNo++;
+            }
+            CompletableFuture.allOf(writes).join();
+        }
+        bitCask.close();
+
+        hintFiles = hintsDir.listFiles((dir, name) -> name.endsWith(HINT_FILE_EXTENSION));
+        Arrays.sort(hintFiles);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    public KeyDir recover() throws IOException {
+        SegmentManager segmentManager = new SegmentManager(segmentsDir, hintsDir);
+        KeyDir keyDir = new KeyDir();
+        new HintFileRecovery(segmentManager, keyDir).recover(hintFiles);
+        segmentManager.close();
+        return keyDir;
+    }
+
+    private int countHintFiles() {
+        String[] names = hintsDir.list((dir, name) -> name.endsWith(HINT_FILE_EXTENSION));
+        return names == null ? 0 : names.length;
+    }
+}
@@ -0,0 +1,63 @@
+package org.example;
+
+import org.example.model.WeatherMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Archiving path of the consumer: enqueueing statuses to the archiver in worker-share sized batches, its thread
+// appends them to one open file per station. The queue blocks when full, so the score is bounded by the flush
+// throughput. Scores are statuses per second.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WeatherArchiverBenchmark {
+
+    private static final int MESSAGE_COUNT = 1 << 14;
+    private static final int SHARE_SIZE = 256;
+
+    @Param({"10", "1000"})
+    private int stationCount;
+
+    private Path directory;
+    private WeatherArchiver weatherArchiver;
+    private List<List<WeatherMessage>> shares;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = BenchmarkData.createDirectory("archiver-benchmark");
+        weatherArchiver = new WeatherArchiver(directory.toString());
+        Random random = new Random(42);
+        WeatherMessage[] messages = new WeatherMessage[MESSAGE_COUNT];
+        long timeStamp = System.currentTimeMillis();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            messages[i] = BenchmarkData.message(random.nextInt(stationCount), i, timeStamp + i, random);
+        }
+        shares = new ArrayList<>();
+        for (int i = 0; i < MESSAGE_COUNT; i += SHARE_SIZE) {
+            shares.add(Arrays.asList(Arrays.copyOfRange(messages, i, i + SHARE_SIZE)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        weatherArchiver.close();
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SHARE_SIZE)
+    public void receiveStatuses() {
+        weatherArchiver.receiveStatuses(shares.get(next++ & (MESSAGE_COUNT / SHARE_SIZE - 1)));
+    }
+}
@@ -0,0 +1,68 @@
+package org.example;
+
+import org.example.model.WeatherMessage;
+import org.example.model.WeatherMessageCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Encoding and decoding of BitCask values, version 0 is the layout of segments written before the
+// versioned format and is still decoded after an upgrade
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeatherMessageCodecBenchmark {
+
+    private static final int MESSAGE_COUNT = 1024;
+
+    @Param({"0", "1"})
+    private int version;
+
+    private WeatherMessage[] messages;
+    private byte[][] values;
+    private ByteBuffer[] wrappedValues;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(WeatherMessageCodec.ENCODED_SIZE);
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        messages = new WeatherMessage[MESSAGE_COUNT];
+        values = new byte[MESSAGE_COUNT][];
+        wrappedValues = new ByteBuffer[MESSAGE_COUNT];
+        long timeStamp = System.currentTimeMillis();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            messages[i] = BenchmarkData.message(random.nextInt(100_000), i, timeStamp + i, random);
+            values[i] = version == 0 ? BenchmarkData.encodeVersion0(messages[i]) : messages[i].toByteArray();
+            wrappedValues[i] = ByteBuffer.wrap(values[i]);
+        }
+    }
+
+    // Writer path: straight into a reused buffer
+    @Benchmark
+    public int encodeIntoBuffer() {
+        buffer.clear();
+        WeatherMessageCodec.encode(messages[next++ & (MESSAGE_COUNT - 1)], buffer);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public byte[] toByteArray() {
+        return messages[next++ & (MESSAGE_COUNT - 1)].toByteArray();
+    }
+
+    @Benchmark
+    public WeatherMessage decode() {
+        return WeatherMessage.fromByteArray(values[next++ & (MESSAGE_COUNT - 1)]);
+    }
+
+    @Benchmark
+    public long readStatusTimestamp() {
+        return WeatherMessageCodec.readStatusTimestamp(wrappedValues[next++ & (MESSAGE_COUNT - 1)], 0);
+    }
+}
@@ -0,0 +1,7 @@
+package org.example;
+
+// What WeatherArchiver does with a status when its queue is full
+public enum ArchiveBackpressure {
+    BLOCK, // the caller waits for room, so a slow disk slows down consumption
+    DROP   // the status is not archived and counted as dropped, consumption never waits
+}
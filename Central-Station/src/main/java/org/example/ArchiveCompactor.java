@@ -0,0 +1,370 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.avro.AvroReadSupport;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.hadoop.util.HadoopOutputFile;
+import org.example.model.ArchiveCompactionStats;
+import org.example.model.ArchiveManifest;
+import org.example.utils.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.example.Constants.*;
+
+// Periodically merges the files of each closed date/hour/station partition of the Parquet archive into a single
+// file sorted by status_timestamp. Only hours that ended at least graceMs ago are touched, the archiver rolls its
+// files as soon as the hour changes so it never writes to them again. Reads and writes go through a RateLimiter.
+// The swap is published through the partition's _manifest.json (see ArchiveManifest): the merged file is written
+// under a hidden name, the manifest marks the source files as replaced, then the merged file is renamed and the
+// sources are deleted. An interrupted swap is finished on the next pass.
+@Component
+public class ArchiveCompactor {
+    private static final String COMPACTING_EXTENSION = ".compacting";
+    private static final Comparator<GenericRecord> BY_STATUS_TIMESTAMP = Comparator
+            .comparingLong((GenericRecord record) -> (Long) record.get("status_timestamp"))
+            .thenComparingLong(record -> (Long) record.get("s_no"));
+
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "archive-compactor"));
+    private final String directory;
+    private final long intervalMs;
+    private final long graceMs;
+    private final long maxPartitionBytes;
+    private final RateLimiter rateLimiter;
+    private final Configuration conf = new Configuration();
+    private final Schema schema;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private volatile boolean running = true;
+    private final Logger logger = LoggerFactory.getLogger(ArchiveCompactor.class);
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong partitionsCompacted = new AtomicLong();
+    private final AtomicLong filesMerged = new AtomicLong();
+    private final AtomicLong recordsRewritten = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong lastRunDurationMs = new AtomicLong();
+    private final AtomicLong totalRunDurationMs = new AtomicLong();
+
+    // Used by Spring, compacts the directory the archiver writes to
+    @Autowired
+    public ArchiveCompactor(WeatherArchiver weatherArchiver) {
+        this(weatherArchiver.getDirectory(),
+                Long.parseLong(System.getenv().getOrDefault(
+                        "ARCHIVE_COMPACTION_INTERVAL_MS", String.valueOf(DEFAULT_ARCHIVE_COMPACTION_INTERVAL_MS))),
+                Long.parseLong(System.getenv().getOrDefault(
+                        "ARCHIVE_COMPACTION_GRACE_MS", String.valueOf(DEFAULT_ARCHIVE_COMPACTION_GRACE_MS))),
+                Long.parseLong(System.getenv().getOrDefault(
+                        "ARCHIVE_COMPACTION_BYTES_PER_SECOND", String.valueOf(DEFAULT_ARCHIVE_COMPACTION_BYTES_PER_SECOND))),
+                Long.parseLong(System.getenv().getOrDefault(
+                        "ARCHIVE_COMPACTION_MAX_PARTITION_BYTES", String.valueOf(DEFAULT_ARCHIVE_COMPACTION_MAX_PARTITION_BYTES))));
+    }
+
+    public ArchiveCompactor(String directory, long intervalMs, long graceMs, long bytesPerSecond, long maxPartitionBytes) {
+        this.directory = directory;
+        this.intervalMs = intervalMs;
+        this.graceMs = graceMs;
+        this.maxPartitionBytes = maxPartitionBytes;
+        this.rateLimiter = new RateLimiter(bytesPerSecond);
+        try {
+            this.schema = new Schema.Parser().parse(
+                    ArchiveCompactor.class.getClassLoader().getResourceAsStream("weather_status.avsc")
+            );
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load Avro schema", e);
+        }
+        // Files written before a schema change are read into the current schema
+        AvroReadSupport.setAvroReadSchema(conf, schema);
+    }
+
+    @PostConstruct
+    public void startCompaction() {
+        scheduler.scheduleWithFixedDelay(this::compactPartitions, 0, intervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Archive compaction scheduled every {} ms for hours closed for {} ms", intervalMs, graceMs);
+    }
+
+    // Lets the partition being merged finish its swap
+    @PreDestroy
+    public void close() {
+        running = false;
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("Archive compaction did not stop in time");
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public ArchiveCompactionStats getStats() {
+        return new ArchiveCompactionStats(
+                runs.get(),
+                partitionsCompacted.get(),
+                filesMerged.get(),
+                recordsRewritten.get(),
+                bytesRead.get(),
+                bytesWritten.get(),
+                lastRunDurationMs.get(),
+                totalRunDurationMs.get()
+        );
+    }
+
+    // One pass over the closed partitions, normally run by the scheduler
+    public void compactPartitions() {
+        long start = System.currentTimeMillis();
+        long compactedBefore = partitionsCompacted.get();
+        // An exception would cancel all future runs of the scheduled task
+        try {
+            LocalDateTime closedBefore = LocalDateTime.now().minus(graceMs, ChronoUnit.MILLIS).truncatedTo(ChronoUnit.HOURS);
+            for (File partition : closedPartitions(closedBefore)) {
+                if (!running) break;
+                try {
+                    compactPartition(partition);
+                } catch (IOException e) {
+                    logger.error("Failed to compact archive partition {}", partition, e);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Error during archive compaction", e);
+        }
+        long duration = System.currentTimeMillis() - start;
+        runs.incrementAndGet();
+        lastRunDurationMs.set(duration);
+        totalRunDurationMs.addAndGet(duration);
+        long compacted = partitionsCompacted.get() - compactedBefore;
+        if (compacted > 0) {
+            logger.info("Archive compaction merged {} partitions in {} ms", compacted, duration);
+        }
+    }
+
+    // Station partitions of the hours before closedBefore, as laid out by WeatherArchiver
+    private List<File> closedPartitions(LocalDateTime closedBefore) {
+        List<File> partitions = new ArrayList<>();
+        for (File dateDir : listDirectories(new File(directory), "date=")) {
+            for (File hourDir : listDirectories(dateDir, "hour=")) {
+                LocalDateTime hour;
+                try {
+                    hour = LocalDate.parse(value(dateDir)).atTime(Integer.parseInt(value(hourDir)), 0);
+                } catch (DateTimeParseException | NumberFormatException e) {
+                    logger.debug("Skipping unexpected archive directory {}", hourDir);
+                    continue;
+                }
+                if (!hour.isBefore(closedBefore)) continue;
+                partitions.addAll(listDirectories(hourDir, "station_id="));
+            }
+        }
+        return partitions;
+    }
+
+    static List<File> listDirectories(File parent, String prefix) {
+        File[] children = parent.listFiles(file -> file.isDirectory() && file.getName().startsWith(prefix));
+        if (children == null) return List.of();
+        Arrays.sort(children);
+        return Arrays.asList(children);
+    }
+
+    static String value(File partitionDir) {
+        return partitionDir.getName().substring(partitionDir.getName().indexOf('=') + 1);
+    }
+
+    private void compactPartition(File partition) throws IOException {
+        ArchiveManifest manifest = recover(partition, readManifest(partition));
+        Set<String> replaced = manifest == null ? Set.of() : new HashSet<>(manifest.replaced());
+        File[] files = partition.listFiles(file -> file.isFile() && isArchiveFile(file.getName())
+                && !replaced.contains(file.getName()));
+        if (files == null || files.length < 2) return;
+        Arrays.sort(files);
+
+        long inputBytes = 0;
+        for (File file : files) inputBytes += file.length();
+        if (inputBytes > maxPartitionBytes) {
+            logger.debug("Skipping archive partition {}, {} bytes is above the limit", partition, inputBytes);
+            return;
+        }
+
+        // Whole partition in memory, bounded by maxPartitionBytes
+        List<GenericRecord> records = new ArrayList<>();
+        List<String> sources = new ArrayList<>(files.length);
+        for (File file : files) {
+            rateLimiter.acquire(file.length());
+            readInto(new Path(file.getPath()), records);
+            sources.add(file.getName());
+        }
+        records.sort(BY_STATUS_TIMESTAMP);
+
+        String name = "weather_" + UUID.randomUUID() + ".parquet";
+        Path compacting = compactingPath(partition, name);
+        write(compacting, records);
+        long outputBytes = new File(compacting.toUri().getPath()).length();
+        rateLimiter.acquire(outputBytes);
+
+        // Commit point: from here on readers skip the sources and wait for the merged file
+        writeManifest(partition, new ArchiveManifest(List.of(name), sources, records.size(), System.currentTimeMillis()));
+        publish(partition, name);
+        deleteAll(partition, sources);
+
+        partitionsCompacted.incrementAndGet();
+        filesMerged.addAndGet(sources.size());
+        recordsRewritten.addAndGet(records.size());
+        bytesRead.addAndGet(inputBytes);
+        bytesWritten.addAndGet(outputBytes);
+        logger.debug("Merged {} files of {} into {} ({} records)", sources.size(), partition, name, records.size());
+    }
+
+    // Files a reader should see in the partition: the merged files of the manifest instead of the ones they
+    // replaced, or the replaced ones while the merged file is not published yet (they are only deleted after it)
+    static List<File> readableFiles(File partition) throws IOException {
+        Set<String> skipped = Set.of();
+        File manifestFile = new File(partition, ARCHIVE_MANIFEST_FILE);
+        if (manifestFile.exists()) {
+            ArchiveManifest manifest = new ObjectMapper().readValue(manifestFile, ArchiveManifest.class);
+            boolean published = manifest.files().stream().allMatch(name -> new File(partition, name).exists());
+            skipped = new HashSet<>(published ? manifest.replaced() : manifest.files());
+        }
+        Set<String> hidden = skipped;
+        File[] files = partition.listFiles(file -> file.isFile() && isArchiveFile(file.getName())
+                && !hidden.contains(file.getName()));
+        if (files == null) return List.of();
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    // Finishes a swap interrupted after its commit point and clears merged files that never got committed.
+    // Returns the manifest in effect afterwards.
+    private ArchiveManifest recover(File partition, ArchiveManifest manifest) throws IOException {
+        Set<String> committed = new HashSet<>();
+        if (manifest != null) {
+            for (String name : manifest.files()) {
+                if (new File(partition, name).exists()) continue;
+                if (!new File(compactingPath(partition, name).toUri().getPath()).exists()) {
+                    // The sources are only deleted once the merged file is published, they are still all there
+                    logger.warn("Compacted file {} of {} is missing, dropping the manifest", name, partition);
+                    Files.delete(new File(partition, ARCHIVE_MANIFEST_FILE).toPath());
+                    manifest = null;
+                    break;
+                }
+                publish(partition, name);
+            }
+        }
+        if (manifest != null) {
+            committed.addAll(manifest.files());
+            deleteAll(partition, manifest.replaced());
+        }
+        File[] leftovers = partition.listFiles(file -> file.getName().endsWith(COMPACTING_EXTENSION));
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                String name = leftover.getName().substring(1, leftover.getName().length() - COMPACTING_EXTENSION.length());
+                if (!committed.contains(name)) deleteAll(partition, List.of(leftover.getName()));
+            }
+        }
+        return manifest;
+    }
+
+    // Finished files only, in-progress and hidden files start with a dot
+    private static boolean isArchiveFile(String name) {
+        return name.endsWith(".parquet") && !name.startsWith(".") && !name.startsWith("_");
+    }
+
+    private static Path compactingPath(File partition, String name) {
+        return new Path(partition.getPath(), "." + name + COMPACTING_EXTENSION);
+    }
+
+    private void readInto(Path path, List<GenericRecord> records) throws IOException {
+        try (ParquetReader<GenericRecord> reader = AvroParquetReader
+                .<GenericRecord>builder(HadoopInputFile.fromPath(path, conf))
+                .withConf(conf)
+                .build()) {
+            GenericRecord record;
+            while ((record = reader.read()) != null) {
+                records.add(record);
+            }
+        }
+    }
+
+    private void write(Path path, List<GenericRecord> records) throws IOException {
+        try (ParquetWriter<GenericRecord> writer = AvroParquetWriter
+                .<GenericRecord>builder(HadoopOutputFile.fromPath(path, conf))
+                .withConf(conf)
+                .withSchema(schema)
+                .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+                .withCompressionCodec(CompressionCodecName.GZIP)
+                .build()) {
+            for (GenericRecord record : records) {
+                writer.write(record);
+            }
+        }
+        // The sources are deleted after the swap, the merged copy must be on disk first
+        force(new File(path.toUri().getPath()));
+    }
+
+    // The rename also moves the checksum file
+    private void publish(File partition, String name) throws IOException {
+        Path target = new Path(partition.getPath(), name);
+        FileSystem fileSystem = target.getFileSystem(conf);
+        if (!fileSystem.rename(compactingPath(partition, name), target)) {
+            throw new IOException("Rename to " + target + " failed");
+        }
+    }
+
+    private void deleteAll(File partition, Collection<String> names) throws IOException {
+        FileSystem fileSystem = new Path(partition.getPath()).getFileSystem(conf);
+        for (String name : names) {
+            Path path = new Path(partition.getPath(), name);
+            if (fileSystem.exists(path)) fileSystem.delete(path, false);
+        }
+    }
+
+    private ArchiveManifest readManifest(File partition) throws IOException {
+        File manifest = new File(partition, ARCHIVE_MANIFEST_FILE);
+        return manifest.exists() ? objectMapper.readValue(manifest, ArchiveManifest.class) : null;
+    }
+
+    // Written next to the manifest and moved over it, readers see either the old or the new one
+    private void writeManifest(File partition, ArchiveManifest manifest) throws IOException {
+        File temporary = new File(partition, ARCHIVE_MANIFEST_FILE + ".tmp");
+        objectMapper.writeValue(temporary, manifest);
+        force(temporary);
+        Files.move(temporary.toPath(), new File(partition, ARCHIVE_MANIFEST_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void force(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.example;
+
+import org.example.model.BatteryStatus;
+import org.example.model.WeatherData;
+import org.example.model.WeatherMessage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+// Write-ahead log of one hour of the archive: every status the archiver writes to a Parquet file is appended here
+// with the sequence number of that file, and the file's number once it is finished. A flush is durable once the
+// journal is synced, long before its files are finished, which only happens when the hour is over or they are big.
+// The journal is deleted when every file of its hour is finished; one left behind by a crash (or a failed file)
+// holds the statuses of the files that never got their footer, which the archiver writes again on start.
+// Entries have a fixed size, a torn entry at the end is ignored:
+//   status:   [1][file 8][station_id 8][s_no 8][battery_status 1][status_timestamp 8][humidity 1][temperature 2][wind_speed 2]
+//   finished: [2][file 8] padded to the same size
+// Owned by the archiver's flush thread, not thread-safe.
+final class ArchiveJournal implements Closeable {
+    static final String DIRECTORY = "_journal";
+    private static final String EXTENSION = ".journal";
+    private static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH");
+    private static final byte STATUS = 1;
+    private static final byte FINISHED = 2;
+    private static final int ENTRY_SIZE = 1 + 4 * Long.BYTES + 2 * Byte.BYTES + 2 * Short.BYTES;
+
+    // Statuses of unfinished files, in the order they were written
+    record Recovered(LocalDateTime hour, List<WeatherMessage> statuses) {
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    private ArchiveJournal(File file, FileChannel channel, int bufferedEntries) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferedEntries * ENTRY_SIZE);
+    }
+
+    // A new journal for the hour, bufferedEntries are written with one write
+    static ArchiveJournal open(String archiveDirectory, LocalDateTime hour, int bufferedEntries) throws IOException {
+        File directory = new File(archiveDirectory, DIRECTORY);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + directory);
+        }
+        File file = new File(directory, hour.format(HOUR_FORMAT) + "_" + UUID.randomUUID() + EXTENSION);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        return new ArchiveJournal(file, channel, bufferedEntries);
+    }
+
+    // Journals left behind by earlier runs, oldest hour first
+    static List<File> list(String archiveDirectory) {
+        File[] files = new File(archiveDirectory, DIRECTORY).listFiles(file -> file.getName().endsWith(EXTENSION));
+        if (files == null) return List.of();
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        return List.of(files);
+    }
+
+    static Recovered read(File file) throws IOException {
+        LocalDateTime hour = LocalDateTime.parse(file.getName().substring(0, file.getName().indexOf('_')) + ":00");
+        ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        int count = entries.capacity() / ENTRY_SIZE;
+        Set<Long> finished = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            if (entries.get(i * ENTRY_SIZE) == FINISHED) finished.add(entries.getLong(i * ENTRY_SIZE + 1));
+        }
+        List<WeatherMessage> statuses = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.position(i * ENTRY_SIZE);
+            if (entries.get() != STATUS || finished.contains(entries.getLong())) continue;
+            statuses.add(new WeatherMessage(entries.getLong(), entries.getLong(),
+                    BatteryStatus.fromCode(entries.get()).name(), entries.getLong(),
+                    new WeatherData(entries.get(), entries.getShort(), entries.getShort())));
+        }
+        return new Recovered(hour, statuses);
+    }
+
+    void appendStatus(long fileSeq, StagedStatuses staged, int row) throws IOException {
+        if (!buffer.hasRemaining()) write();
+        buffer.put(STATUS)
+                .putLong(fileSeq)
+                .putLong(staged.stationId(row))
+                .putLong(staged.sNo(row))
+                .put(BatteryStatus.parse(staged.batteryStatus(row)).code())
+                .putLong(staged.statusTimestamp(row))
+                .put(staged.humidity(row))
+                .putShort(staged.temperature(row))
+                .putShort(staged.windSpeed(row));
+    }
+
+    // Durable with the next sync
+    void appendFinished(long fileSeq) throws IOException {
+        if (!buffer.hasRemaining()) write();
+        buffer.put(FINISHED).putLong(fileSeq);
+        buffer.position(buffer.position() + ENTRY_SIZE - 1 - Long.BYTES);
+    }
+
+    void sync() throws IOException {
+        write();
+        channel.force(false);
+    }
+
+    private void write() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+}
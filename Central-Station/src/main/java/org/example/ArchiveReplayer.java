@@ -0,0 +1,269 @@
+package org.example;
+
+import ch.qos.logback.classic.Level;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.avro.AvroReadSupport;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.example.model.WeatherData;
+import org.example.model.WeatherMessage;
+import org.example.utils.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.example.Constants.*;
+
+// Publishes the Parquet archive written by WeatherArchiver to Weather-Metrics again, to benchmark ingestion against
+// recorded traffic: java -cp Central-Station.jar org.example.ArchiveReplayer [archive directory].
+// Hour partitions are replayed in order, the station files of an hour merged by status_timestamp, and statuses
+// are spaced like they were recorded divided by the speed (0 sends as fast as the producer accepts them).
+// Their timestamps are moved to the replay time by default, Central-Station rejects statuses older than the last
+// one stored for their station. Their s_no are then renumbered too, per station from the replay start in
+// milliseconds on: the recorded ones were already seen by Central-Station's dedupe window, which would drop the
+// replayed statuses as duplicates. Throughput and send-to-acknowledgement latency percentiles are printed every
+// 10 seconds and at the end.
+public class ArchiveReplayer {
+    private static final long REPORT_INTERVAL_MS = 10_000;
+    private static final double[] PERCENTILES = {50, 95, 99, 99.9};
+
+    // Next status of one archive file
+    private static final class Cursor implements Closeable {
+        private final ParquetReader<GenericRecord> reader;
+        private WeatherMessage head;
+
+        private Cursor(ParquetReader<GenericRecord> reader) {
+            this.reader = reader;
+        }
+
+        private boolean advance() throws IOException {
+            GenericRecord record = reader.read();
+            head = record == null ? null : toMessage(record);
+            return head != null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private final Producer<String, byte[]> producer;
+    private final String topic;
+    private final double speed;
+    private final boolean restamp;
+    private final Configuration conf = new Configuration();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Last s_no sent per station when restamping
+    private final Map<Long, Long> sNos = new HashMap<>();
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder acknowledged = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private long sent;
+    private long maxLagMs;
+    // Replay clock, the first status is sent at startMs and the others relative to its timestamp
+    private long startMs = -1;
+    private long firstTimestamp;
+    private long lastReportMs;
+    private long sentAtLastReport;
+
+    public ArchiveReplayer(Producer<String, byte[]> producer, String topic, double speed, boolean restamp) {
+        if (speed < 0) throw new IllegalArgumentException("Invalid replay speed: " + speed);
+        this.producer = producer;
+        this.topic = topic;
+        this.speed = speed;
+        this.restamp = restamp;
+        try {
+            Schema schema = new Schema.Parser().parse(
+                    ArchiveReplayer.class.getClassLoader().getResourceAsStream("weather_status.avsc")
+            );
+            // Files written before a schema change are read into the current schema
+            AvroReadSupport.setAvroReadSchema(conf, schema);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load Avro schema", e);
+        }
+    }
+
+    // Replays the hours in [from, to), either bound may be null
+    public void replay(String directory, LocalDateTime from, LocalDateTime to) throws IOException {
+        for (File dateDir : ArchiveCompactor.listDirectories(new File(directory), "date=")) {
+            for (File hourDir : ArchiveCompactor.listDirectories(dateDir, "hour=")) {
+                LocalDateTime hour;
+                try {
+                    hour = LocalDate.parse(ArchiveCompactor.value(dateDir))
+                            .atTime(Integer.parseInt(ArchiveCompactor.value(hourDir)), 0);
+                } catch (DateTimeParseException | NumberFormatException e) {
+                    continue;
+                }
+                if ((from != null && hour.isBefore(from)) || (to != null && !hour.isBefore(to))) continue;
+                replayHour(hourDir);
+            }
+        }
+        producer.flush();
+    }
+
+    // One reader per file of the hour, the partitions are by arrival hour so a few statuses near the start of the
+    // hour may be older than the last ones of the previous hour, those are sent without waiting
+    private void replayHour(File hourDir) throws IOException {
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>(
+                Comparator.comparingLong((Cursor cursor) -> cursor.head.status_timestamp())
+                        .thenComparingLong(cursor -> cursor.head.s_no()));
+        List<Cursor> opened = new ArrayList<>();
+        try {
+            for (File partition : ArchiveCompactor.listDirectories(hourDir, "station_id=")) {
+                for (File file : ArchiveCompactor.readableFiles(partition)) {
+                    Cursor cursor = new Cursor(AvroParquetReader
+                            .<GenericRecord>builder(HadoopInputFile.fromPath(new Path(file.getPath()), conf))
+                            .withConf(conf)
+                            .build());
+                    opened.add(cursor);
+                    if (cursor.advance()) cursors.add(cursor);
+                }
+            }
+            while (!cursors.isEmpty()) {
+                Cursor cursor = cursors.poll();
+                send(cursor.head);
+                if (cursor.advance()) cursors.add(cursor);
+            }
+        } finally {
+            for (Cursor cursor : opened) cursor.close();
+        }
+    }
+
+    private void send(WeatherMessage message) throws IOException {
+        long now = System.currentTimeMillis();
+        if (startMs < 0) {
+            startMs = now;
+            lastReportMs = now;
+            firstTimestamp = message.status_timestamp();
+        }
+        long sendAt = speed == 0 ? now : startMs + (long) ((message.status_timestamp() - firstTimestamp) / speed);
+        if (sendAt > now) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(sendAt - now));
+        } else {
+            // Behind schedule, e.g. the producer's buffer is full and send blocks
+            maxLagMs = Math.max(maxLagMs, now - sendAt);
+        }
+        if (restamp) {
+            // Above anything a station or an earlier replay sent, unless that sent more than one status a millisecond
+            long sNo = sNos.merge(message.station_id(), startMs, (previous, ignored) -> previous + 1);
+            message = new WeatherMessage(message.station_id(), sNo, message.battery_status(),
+                    speed == 0 ? System.currentTimeMillis() : sendAt, message.weather());
+        }
+
+        byte[] value = objectMapper.writeValueAsBytes(message);
+        long sendNanos = System.nanoTime();
+        try {
+            // Unkeyed like the stations
+            producer.send(new ProducerRecord<>(topic, value), (metadata, e) -> {
+                if (e == null) {
+                    acknowledged.increment();
+                    latencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sendNanos));
+                } else {
+                    failed.increment();
+                }
+            });
+            sent++;
+        } catch (KafkaException e) {
+            // Thrown instead of completing the callback
+            failed.increment();
+        }
+
+        now = System.currentTimeMillis();
+        if (now - lastReportMs >= REPORT_INTERVAL_MS) {
+            System.out.printf("Interval: %.0f statuses/s%n", (sent - sentAtLastReport) * 1000.0 / (now - lastReportMs));
+            report();
+            lastReportMs = now;
+            sentAtLastReport = sent;
+        }
+    }
+
+    public void report() {
+        long elapsedMs = startMs < 0 ? 0 : System.currentTimeMillis() - startMs;
+        StringBuilder percentiles = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            percentiles.append(String.format(" p%s=%.1fms", BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString(),
+                    latencies.percentile(percentile) / 1000.0));
+        }
+        System.out.printf("Replayed %d statuses in %.1fs (%.0f/s): acknowledged=%d failed=%d max lag=%dms, latency%s max=%.1fms%n",
+                sent, elapsedMs / 1000.0, elapsedMs == 0 ? 0 : sent * 1000.0 / elapsedMs, acknowledged.sum(),
+                failed.sum(), maxLagMs, percentiles, latencies.percentile(100) / 1000.0);
+    }
+
+    private static WeatherMessage toMessage(GenericRecord record) {
+        GenericRecord weather = (GenericRecord) record.get("weather");
+        return new WeatherMessage(
+                (Long) record.get("station_id"),
+                (Long) record.get("s_no"),
+                record.get("battery_status").toString(),
+                (Long) record.get("status_timestamp"),
+                new WeatherData(
+                        ((Integer) weather.get("humidity")).byteValue(),
+                        ((Integer) weather.get("temperature")).shortValue(),
+                        ((Integer) weather.get("wind_speed")).shortValue()
+                )
+        );
+    }
+
+    // Hour bound such as 2024-05-01T13, null when unset
+    private static LocalDateTime hour(String value) {
+        return value == null || value.isBlank() ? null : LocalDateTime.parse(value + ":00");
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Outside Spring Boot logback logs every library at DEBUG, keep the console for the reports
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        String directory = args.length > 0 ? args[0] : System.getenv().getOrDefault("ARCHIVE_DIR", DEFAULT_ARCHIVE_DIR);
+        double speed = Double.parseDouble(System.getenv().getOrDefault("REPLAY_SPEED", String.valueOf(DEFAULT_REPLAY_SPEED)));
+        boolean restamp = Boolean.parseBoolean(System.getenv().getOrDefault("REPLAY_RESTAMP", "true"));
+
+        Properties props = new Properties();
+        // A local single-node broker by default
+        props.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, System.getenv().getOrDefault("BOOTSTRAP_SERVERS", "localhost:9092"));
+        props.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        props.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.setProperty(ProducerConfig.LINGER_MS_CONFIG, System.getenv().getOrDefault(
+                "REPLAY_LINGER_MS", String.valueOf(DEFAULT_REPLAY_LINGER_MS)));
+        props.setProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+
+        Producer<String, byte[]> producer = new KafkaProducer<>(props);
+        ArchiveReplayer replayer = new ArchiveReplayer(producer, WEATHER_METRICS_TOPIC, speed, restamp);
+        try {
+            replayer.replay(directory, hour(System.getenv("REPLAY_FROM")), hour(System.getenv("REPLAY_TO")));
+        } finally {
+            producer.close(Duration.ofSeconds(30));
+            replayer.report();
+        }
+    }
+}
@@ -1,12 +1,22 @@
 package org.example;
 
-import org.example.model.KeyDirValue;
 import org.example.model.WeatherMessage;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface BitCask {
     WeatherMessage get(Long key);
-    void put(WeatherMessage weatherMessage);
-    Map<Long, KeyDirValue> getKeyDirMap();
+    CompletableFuture<Void> put(WeatherMessage weatherMessage);
+    // Completes once every message is durable, fails if any of them could not be written
+    CompletableFuture<Void> putAll(List<WeatherMessage> weatherMessages);
+    // Values of the keys that exist, read in (segment, position) order
+    Map<Long, WeatherMessage> multiGet(Collection<Long> keys);
+    // Latest value of every key, read chunk by chunk (see BitCaskScan), must be closed unless read to the end
+    BitCaskScan scan();
+    // Timestamp of the latest value of the key, or null if the key does not exist
+    Long getLatestTimestamp(Long key);
+    Map<String, Object> getStats();
 }
@@ -1,6 +1,6 @@
 package org.example;
 
-import org.example.model.HintFileEntry;
+import jakarta.annotation.PreDestroy;
 import org.example.model.KeyDirValue;
 import org.example.model.WeatherMessage;
 import org.example.utils.Utils;
@@ -9,12 +9,14 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 
 import static org.example.Constants.*;
 
@@ -23,22 +25,48 @@ public class BitCaskImp implements BitCask {
 
     private static final Logger logger = LoggerFactory.getLogger(BitCaskImp.class);
 
-    private RandomAccessFile activeFile;
-    private RandomAccessFile hintFile;
-    private File currentFileId; // To get the id of the segment file where the actual log entry is stored
-    private final Map<Long, KeyDirValue> keyDirMap;
+    private final KeyDir keyDir;
+    private final SegmentManager segmentManager;
+    private final SegmentWriter segmentWriter;
+    private final Compactor compactor;
+    private final ValueCache valueCache;
 
+    // Used by Spring, everything is configured through the environment
     public BitCaskImp() {
-        keyDirMap = new ConcurrentHashMap<>();
+        this(System.getenv().getOrDefault("BITCASK_DIR", DEFAULT_BIT_CASK_DIR),
+                DurabilityPolicy.valueOf(
+                        System.getenv().getOrDefault("BITCASK_DURABILITY", DEFAULT_DURABILITY_POLICY).toUpperCase()),
+                Long.parseLong(
+                        System.getenv().getOrDefault("BITCASK_FSYNC_INTERVAL_MS", String.valueOf(DEFAULT_FSYNC_INTERVAL_MS))));
+    }
+
+    public BitCaskImp(String directory, DurabilityPolicy durabilityPolicy, long fsyncIntervalMs) {
+        keyDir = new KeyDir();
+        File segmentsDir = new File(directory, SEGMENTS_DIR);
+        File hintsDir = new File(directory, HINTS_DIR);
+        segmentManager = new SegmentManager(segmentsDir, hintsDir);
+        valueCache = new ValueCache(Long.parseLong(
+                System.getenv().getOrDefault("BITCASK_CACHE_BYTES", String.valueOf(DEFAULT_CACHE_BYTES))));
+        segmentWriter = new SegmentWriter(keyDir, segmentManager, durabilityPolicy, fsyncIntervalMs);
         // If any directory is missing, we need to initialize again
-        boolean isBitCaskDirExists = !Utils.createDirectory(BIT_CASK_DIR);
-        boolean isHintDirExists = !Utils.createDirectory(HINT_FILES_DIR);
+        boolean isBitCaskDirExists = !Utils.createDirectory(segmentsDir.getPath());
+        boolean isHintDirExists = !Utils.createDirectory(hintsDir.getPath());
         if (isBitCaskDirExists && isHintDirExists) {
             recover();
         } else {
             initialize();
         }
-        new Compactor(keyDirMap, () -> this.currentFileId).startCompaction();
+        segmentWriter.start();
+        logger.info("BitCask writer started with durability policy {}", durabilityPolicy);
+        compactor = new Compactor(keyDir, segmentManager, segmentWriter::getActiveSegmentId);
+        compactor.startCompaction();
+    }
+
+    @PreDestroy
+    public void close() {
+        compactor.stopCompaction();
+        segmentWriter.close();
+        segmentManager.close();
     }
 
     private void initialize() {
@@ -47,74 +75,117 @@ public class BitCaskImp implements BitCask {
 
     @Override
     public WeatherMessage get(Long key) {
-        KeyDirValue keyDirValue = keyDirMap.get(key);
+        KeyDirValue keyDirValue = keyDir.get(key);
         if (keyDirValue == null) return null;
-        logger.info("Value = {}", keyDirValue);
+        logger.debug("Value = {}", keyDirValue);
         try {
-            byte[] value = Utils.readFromFile(
-                    keyDirValue.fileId(), keyDirValue.valuePosition(), keyDirValue.valueSize()
-            );
-            return WeatherMessage.fromByteArray(value);
+            while (true) {
+                WeatherMessage cached = valueCache.get(key, keyDirValue);
+                if (cached != null) return cached;
+
+                byte[] value = segmentManager.read(
+                        keyDirValue.fileId(), keyDirValue.valuePosition(), keyDirValue.valueSize()
+                );
+                if (value != null) {
+                    WeatherMessage weatherMessage = WeatherMessage.fromByteArray(value);
+                    valueCache.put(key, keyDirValue, weatherMessage);
+                    return weatherMessage;
+                }
+
+                // Segment was merged and retired after our lookup, the key directory already points to the merged file
+                KeyDirValue latest = keyDir.get(key);
+                if (keyDirValue.equals(latest)) {
+                    throw new IOException("Segment " + keyDirValue.fileId() + " is not available");
+                }
+                if (latest == null) return null;
+                keyDirValue = latest;
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     @Override
-    public void put(WeatherMessage weatherMessage) {
-        // String key = "station_" + weatherMessage.station_id();
-        byte[] weatherMessageBytes = weatherMessage.toByteArray();
-
-        try {
-            // 1. Check file size
-            checkFileSizeAndCreateNewIfNeeded();
-            // 2. Append-only at the end of the file
-            // Get pointer before writing
-            long currentValuePos = activeFile.length() + NUM_BYTES_VALUE_WRITE_START_AFTER;
-            // Write to data file
-            Utils.writeToFile(activeFile, weatherMessage.station_id(), weatherMessageBytes, weatherMessage.status_timestamp());
-            // 3. Check addition to keyDir (Handled in App-level)
-            // KeyDirValue keyDirValue = keyDirMap.get(weatherMessage.station_id());
-            // if (keyDirValue != null && keyDirValue.timeStamp() >= weatherMessage.status_timestamp()) return;
-
-            // Write to hint file first before updating the key directory
-            HintFileEntry hintFileEntry = new HintFileEntry(
-                    weatherMessage.station_id(), currentValuePos, weatherMessageBytes.length, weatherMessage.status_timestamp());
-            Utils.writeToHintFile(hintFile, hintFileEntry.stationId(), hintFileEntry.valueToByteArray());
-
-            keyDirMap.put(weatherMessage.station_id(), new KeyDirValue(
-                    currentFileId, currentValuePos, weatherMessageBytes.length, weatherMessage.status_timestamp()
-            ));
+    public Map<Long, WeatherMessage> multiGet(Collection<Long> keys) {
+        Map<Long, WeatherMessage> values = new HashMap<>();
+        try (SegmentBatch batch = collect(keys, values)) {
+            for (int i = 0; i < batch.getSegmentCount(); i++) {
+                int segmentId = batch.getSegmentId(i);
+                SegmentRangeReader reader = batch.reader(i);
+                while (reader.hasNext()) {
+                    reader.readNext((key, valuePosition, timeStamp, value) -> {
+                        WeatherMessage weatherMessage = WeatherMessage.fromByteArray(value);
+                        values.put(key, weatherMessage);
+                        valueCache.put(key, new KeyDirValue(segmentId, valuePosition, value.length, timeStamp), weatherMessage);
+                    });
+                }
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        return values;
     }
 
-    // Use hint files to recover the in-memory key directory in case of failures
-    private void recover() {
-        File directory = new File(HINT_FILES_DIR);
+    // Cached values go straight to values, the others into the returned batch
+    private SegmentBatch collect(Collection<Long> keys, Map<Long, WeatherMessage> values) {
+        while (true) {
+            SegmentBatch batch = SegmentBatch.acquire(segmentManager);
+            boolean complete = true;
+            for (Long key : keys) {
+                KeyDirValue keyDirValue = keyDir.get(key);
+                if (keyDirValue == null) continue;
+                WeatherMessage cached = valueCache.get(key, keyDirValue);
+                if (cached != null) {
+                    values.put(key, cached);
+                } else if (!batch.add(keyDirValue.fileId(), keyDirValue.valuePosition())) {
+                    complete = false;
+                    break;
+                }
+            }
+            if (complete) return batch;
+            // A segment was registered after the batch was acquired, look the keys up again
+            batch.close();
+            values.clear();
+        }
+    }
 
-        if (!directory.exists() || !directory.isDirectory())
-            return;
+    @Override
+    public BitCaskScan scan() {
+        return new BitCaskScan(segmentManager, keyDir);
+    }
 
-        File[] files = directory.listFiles();
-        if (files == null || files.length == 0)
+    // Completes once the entry is written and durable according to the configured DurabilityPolicy
+    @Override
+    public CompletableFuture<Void> put(WeatherMessage weatherMessage) {
+        // Cached entries are checked against the KeyDir anyway, this just frees the slot early
+        valueCache.invalidate(weatherMessage.station_id());
+        return segmentWriter.append(weatherMessage);
+    }
+
+    @Override
+    public CompletableFuture<Void> putAll(List<WeatherMessage> weatherMessages) {
+        for (WeatherMessage weatherMessage : weatherMessages) {
+            valueCache.invalidate(weatherMessage.station_id());
+        }
+        return segmentWriter.appendAll(weatherMessages);
+    }
+
+    // Use hint files to recover the in-memory key directory in case of failures
+    private void recover() {
+        File[] files = segmentManager.getHintsDir().listFiles((dir, name) -> name.endsWith(HINT_FILE_EXTENSION));
+        if (files == null || files.length == 0) {
+            initialize();
             return;
+        }
 
         logger.debug("Entering recovery mood");
         // Sort files by name (= timestamp)
         Arrays.sort(files);
 
-        long position = 0;
-        int size = HintFileEntry.getSize();
-        for (File file : files) {
-            if (file.isFile()) {
-                try {
-                    Utils.readHintFileIntoMap(file, position, size, this.keyDirMap);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
+        try {
+            new HintFileRecovery(segmentManager, keyDir).recover(files);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
 
         String baseFileName = Utils.removeExtension(files[files.length - 1].getName());
@@ -122,27 +193,25 @@ public class BitCaskImp implements BitCask {
     }
 
     @Override
-    public Map<Long, KeyDirValue> getKeyDirMap() {
-        return keyDirMap;
+    public Long getLatestTimestamp(Long key) {
+        long timeStamp = keyDir.getTimeStamp(key);
+        return timeStamp == KeyDir.NO_TIMESTAMP ? null : timeStamp;
     }
 
-    private void checkFileSizeAndCreateNewIfNeeded() throws IOException {
-        if (activeFile.length() > FILE_THRESHOLD) {
-            activeFile.close();
-            hintFile.close();
-            createNewFile(String.valueOf(System.currentTimeMillis()));
-        }
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("keys", keyDir.size());
+        stats.put("compaction", compactor.getStats());
+        stats.put("cache", valueCache.getStats());
+        return stats;
     }
 
     private void createNewFile(String baseFileName) {
-        this.currentFileId = new File(BIT_CASK_DIR, baseFileName + BIT_CASK_EXTENSION);
-        File hintFileId = new File(HINT_FILES_DIR, baseFileName + HINT_FILE_EXTENSION);
         try {
-            this.activeFile = new RandomAccessFile(this.currentFileId, "rw");
-            this.hintFile = new RandomAccessFile(hintFileId, "rw");
-            logger.info("Created two files {} {}", this.currentFileId.getName(), hintFileId.getName());
-        } catch (FileNotFoundException e) {
-            System.err.println("Files are not found: " + e.getMessage());
+            segmentWriter.open(baseFileName);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 }
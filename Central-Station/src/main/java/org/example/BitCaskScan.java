@@ -0,0 +1,99 @@
+package org.example;
+
+import org.example.model.WeatherMessage;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Iterates over the latest value of every key, one KeyDir chunk at a time so memory does not grow with the key
+// count. Not a point-in-time snapshot: a key present for the whole scan is returned exactly once, with its value
+// as of the moment its chunk was read. Within a chunk values come in (segment, position) order, one range read
+// at a time. The segments of the current chunk stay open until the next chunk, so always close a scan that is
+// not read to the end.
+public class BitCaskScan implements Iterator<WeatherMessage>, AutoCloseable {
+
+    private final SegmentManager segmentManager;
+    private final KeyDir keyDir;
+    private final KeyDir.Chunk chunk = new KeyDir.Chunk();
+    private final ArrayDeque<WeatherMessage> buffered = new ArrayDeque<>();
+    private long cursor = 0;
+    private SegmentBatch batch;
+    private int segmentIndex;
+    private SegmentRangeReader reader;
+
+    BitCaskScan(SegmentManager segmentManager, KeyDir keyDir) {
+        this.segmentManager = segmentManager;
+        this.keyDir = keyDir;
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (buffered.isEmpty()) {
+                while (reader == null || !reader.hasNext()) {
+                    if (batch == null || ++segmentIndex >= batch.getSegmentCount()) {
+                        if (!nextChunk()) {
+                            close();
+                            return false;
+                        }
+                        continue;
+                    }
+                    reader = batch.reader(segmentIndex);
+                }
+                reader.readNext((key, valuePosition, timeStamp, value) ->
+                        buffered.add(WeatherMessage.fromByteArray(value)));
+            }
+            return true;
+        } catch (IOException e) {
+            close();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public WeatherMessage next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return buffered.poll();
+    }
+
+    // Releases the segments of the previous chunk and collects the next one, false once the KeyDir is done
+    private boolean nextChunk() {
+        release();
+        reader = null;
+        segmentIndex = -1;
+        if (cursor == KeyDir.SCAN_END) return false;
+        while (true) {
+            SegmentBatch candidate = SegmentBatch.acquire(segmentManager);
+            long next = keyDir.readChunk(cursor, chunk);
+            boolean[] complete = {true};
+            chunk.forEach((key, segmentId, valuePosition, valueSize, timeStamp) -> {
+                if (complete[0]) complete[0] = candidate.add(segmentId, valuePosition);
+            });
+            if (complete[0]) {
+                batch = candidate;
+                cursor = next;
+                return true;
+            }
+            // A writer roll-over or merge registered a segment in between, rare enough to simply read the chunk again
+            candidate.close();
+        }
+    }
+
+    // Ends the scan, hasNext() returns false afterwards
+    @Override
+    public void close() {
+        release();
+        reader = null;
+        buffered.clear();
+        cursor = KeyDir.SCAN_END;
+    }
+
+    private void release() {
+        if (batch != null) {
+            batch.close();
+            batch = null;
+        }
+    }
+}
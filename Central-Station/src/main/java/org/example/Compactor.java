@@ -1,117 +1,222 @@
 package org.example;
 
+import org.example.model.CompactionStats;
 import org.example.model.HintFileEntry;
-import org.example.model.KeyDirValue;
+import org.example.model.WeatherMessage;
+import org.example.model.WeatherMessageCodec;
+import org.example.utils.RateLimiter;
 import org.example.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.function.Supplier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
 
 import static org.example.Constants.*;
 
+// Periodically merges the sealed segments whose share of dead bytes (values overwritten by newer puts)
+// is above the configured garbage ratio. Merge I/O goes through a RateLimiter so compaction does not
+// compete with the write path for disk bandwidth.
 public class Compactor {
 
-    private final ExecutorService executor;
-    private final Map<Long, KeyDirValue> keyDirMap;
-    private final Supplier<File> activeFile;
+    private final ScheduledExecutorService scheduler;
+    private final KeyDir keyDir;
+    private final SegmentManager segmentManager;
+    private final IntSupplier activeSegmentId;
+    private final long intervalMs;
+    private final double garbageRatio;
+    private final RateLimiter rateLimiter;
     private final Logger logger = LoggerFactory.getLogger(Compactor.class);
 
-    public Compactor(Map<Long, KeyDirValue> keyDirMap, Supplier<File> currentFileSupplier) {
-        this.executor = Executors.newSingleThreadExecutor();
-        this.keyDirMap = keyDirMap;
-        this.activeFile = currentFileSupplier;
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong segmentsMerged = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    private final AtomicLong lastMergeDurationMs = new AtomicLong();
+    private final AtomicLong totalMergeDurationMs = new AtomicLong();
+
+    private record Relocation(long key, int fromSegmentId, long fromPosition, long toPosition, int valueSize) {
+    }
+
+    public Compactor(KeyDir keyDir, SegmentManager segmentManager, IntSupplier currentSegmentSupplier) {
+        this(keyDir, segmentManager, currentSegmentSupplier,
+                Long.parseLong(System.getenv().getOrDefault(
+                        "BITCASK_COMPACTION_INTERVAL_MS", String.valueOf(DEFAULT_COMPACTION_INTERVAL_MS))),
+                Double.parseDouble(System.getenv().getOrDefault(
+                        "BITCASK_COMPACTION_GARBAGE_RATIO", String.valueOf(DEFAULT_COMPACTION_GARBAGE_RATIO))),
+                Long.parseLong(System.getenv().getOrDefault(
+                        "BITCASK_COMPACTION_BYTES_PER_SECOND", String.valueOf(DEFAULT_COMPACTION_BYTES_PER_SECOND))));
+    }
+
+    public Compactor(KeyDir keyDir, SegmentManager segmentManager, IntSupplier currentSegmentSupplier,
+                     long intervalMs, double garbageRatio, long bytesPerSecond) {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "bitcask-compactor"));
+        this.keyDir = keyDir;
+        this.segmentManager = segmentManager;
+        this.activeSegmentId = currentSegmentSupplier;
+        this.intervalMs = intervalMs;
+        this.garbageRatio = garbageRatio;
+        this.rateLimiter = new RateLimiter(bytesPerSecond);
     }
 
     public void startCompaction() {
-        executor.submit(this::compactFiles);
+        scheduler.scheduleWithFixedDelay(this::compactFiles, 0, intervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Compaction scheduled every {} ms for segments with garbage ratio >= {}", intervalMs, garbageRatio);
     }
 
-    private void compactFiles() {
-        try {
-            // List all segmentFiles in the directory and filter for data segmentFiles
-            File[] segmentFiles = new File(BIT_CASK_DIR).listFiles((dir, name) -> name.endsWith(BIT_CASK_EXTENSION));
+    public void stopCompaction() {
+        scheduler.shutdownNow();
+    }
+
+    public CompactionStats getStats() {
+        return new CompactionStats(
+                segmentManager.getSegmentCount(),
+                compactions.get(),
+                segmentsMerged.get(),
+                bytesReclaimed.get(),
+                lastMergeDurationMs.get(),
+                totalMergeDurationMs.get()
+        );
+    }
 
-            if (segmentFiles == null || segmentFiles.length == 0) {
-                logger.debug("No data segmentFiles to compact.");
+    // One compaction pass, normally run by the scheduler: never call it on a Compactor that was started
+    public void compactFiles() {
+        // An exception would cancel all future runs of the scheduled task
+        try {
+            List<Segment> segmentsToMerge = getSegmentsToMerge();
+            if (segmentsToMerge.isEmpty()) {
+                logger.debug("No segments above garbage ratio {}", garbageRatio);
                 return;
             }
+            logger.info("Compaction needed. Merging {} segments...", segmentsToMerge.size());
+            mergeFiles(segmentsToMerge);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error during file merging process", e);
+        }
+    }
 
-            // If the number of data segmentFiles exceeds the threshold, start compaction
-            if (segmentFiles.length > COMPACTION_THRESHOLD) {
-                logger.info("Compaction needed. Merging segmentFiles...");
-                mergeFiles(List.of(segmentFiles));
+    // Sealed segments with enough dead bytes, never the active one. The writer counts live bytes after each write
+    // and seals a segment only once it rolled over, so an unsealed segment may look all dead.
+    private List<Segment> getSegmentsToMerge() {
+        List<Segment> segments = segmentManager.getSegments();
+        // Read after listing: a segment the writer rolled to in between is in the list and must be skipped
+        int activeId = this.activeSegmentId.getAsInt();
+        List<Segment> segmentsToMerge = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.getId() == activeId || !segment.isSealed() || !segment.getFile().exists()) continue;
+            long totalBytes = segment.getFile().length();
+            if (totalBytes == 0) continue;
+            double deadRatio = 1.0 - (double) segment.getLiveBytes() / totalBytes;
+            if (deadRatio >= garbageRatio) {
+                segmentsToMerge.add(segment);
             }
-        } catch (IOException e) {
-            logger.error("Error during file merging process", e);
-            throw new RuntimeException("Compaction failed", e);
         }
+        return segmentsToMerge;
     }
 
-    // Merge the old immutable files into a new compacted file
-    private void mergeFiles(List<File> segmentFiles) throws IOException {
+    // Copy the live records of the selected segments into a new compacted file
+    private void mergeFiles(List<Segment> segmentsToMerge) throws IOException {
+        long start = System.currentTimeMillis();
+        BitSet mergedIds = new BitSet();
+        long inputBytes = 0;
+        for (Segment segment : segmentsToMerge) {
+            mergedIds.set(segment.getId());
+            inputBytes += segment.getFile().length();
+        }
+
         // Create a new file for the compacted data
-        String baseFileName = String.valueOf(System.currentTimeMillis());
-        File mergedFile = new File(BIT_CASK_DIR, baseFileName + BIT_CASK_EXTENSION);
-        File mergedHintFile = new File(HINT_FILES_DIR, baseFileName + HINT_FILE_EXTENSION);
-        Map<Long, KeyDirValue> newKeyDir = new HashMap<>();
-        try (RandomAccessFile outputFile = new RandomAccessFile(mergedFile, "rw");
-             RandomAccessFile hintFile = new RandomAccessFile(mergedHintFile, "rw")) {
-            for (Map.Entry<Long, KeyDirValue> entry : keyDirMap.entrySet()) {
-                KeyDirValue keyDirValue = entry.getValue();
-                if (!keyDirValue.fileId().equals(this.activeFile.get())) {
-                    // Read the value
-                    byte[] value = Utils.readFromFile(
-                            keyDirValue.fileId(), keyDirValue.valuePosition(), keyDirValue.valueSize()
-                    );
-
-                    // Write the value to the new file
-                    long currentValuePos = outputFile.length() + NUM_BYTES_VALUE_WRITE_START_AFTER;
-                    Utils.writeToFile(outputFile, entry.getKey(), value, keyDirValue.timeStamp());
-                    // Write to hint file
-                    HintFileEntry hintFileEntry = new HintFileEntry(
-                            entry.getKey(), currentValuePos, keyDirValue.valueSize(), keyDirValue.timeStamp());
-                    Utils.writeToHintFile(hintFile, hintFileEntry.stationId(), hintFileEntry.valueToByteArray());
-                    newKeyDir.put(entry.getKey(), new KeyDirValue(
-                            mergedFile, currentValuePos, keyDirValue.valueSize(), keyDirValue.timeStamp()
-                    ));
+        String baseFileName = segmentManager.createSegmentFile(start);
+        File mergedFile = segmentManager.segmentFile(baseFileName);
+        File mergedHintFile = segmentManager.hintFile(baseFileName);
+        List<Relocation> relocations = new ArrayList<>();
+        try (FileChannel outputFile = FileChannel.open(mergedFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileChannel hintFile = FileChannel.open(mergedHintFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long[] outputPosition = {0};
+            keyDir.forEach((key, segmentId, valuePosition, valueSize, timeStamp) -> {
+                if (!mergedIds.get(segmentId)) return;
+                try {
+                    // Reads and writes both count against the I/O budget
+                    rateLimiter.acquire(2L * (NUM_BYTES_VALUE_WRITE_START_AFTER + valueSize));
+                    byte[] value = segmentManager.read(segmentId, valuePosition, valueSize);
+                    if (value == null) return; // segment no longer exists
+                    if (!WeatherMessageCodec.isVersion1(value)) {
+                        // Old variable-width value, rewrite it in the current format while copying anyway
+                        value = WeatherMessage.fromByteArray(value).toByteArray();
+                    }
+
+                    long currentValuePos = outputPosition[0] + NUM_BYTES_VALUE_WRITE_START_AFTER;
+                    outputPosition[0] += writeFully(outputFile, Utils.toDataRecord(key, value, timeStamp));
+                    HintFileEntry hintFileEntry = new HintFileEntry(key, currentValuePos, value.length, timeStamp);
+                    writeFully(hintFile, Utils.toHintRecord(hintFileEntry.stationId(), hintFileEntry.valueToByteArray()));
+                    relocations.add(new Relocation(key, segmentId, valuePosition, currentValuePos, value.length));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
-            }
-
-            // After merging, update the keyDir
-            updateKeyDirectory(newKeyDir);
+            });
+            // The old segments are deleted below, the merged copy must be on disk first
+            outputFile.force(false);
+            hintFile.force(false);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
 
-            // Remove the old files after successful compaction
-            cleanUpOldFiles(getFilesToMerge(segmentFiles));
+        if (relocations.isEmpty()) {
+            // Nothing was live anymore, the old segments can simply go
+            mergedFile.delete();
+            mergedHintFile.delete();
+        } else {
+            // Merged file is immutable, readers can use it as soon as the keyDir points to it
+            int mergedSegmentId = segmentManager.open(mergedFile);
+            segmentManager.seal(mergedSegmentId);
 
-            logger.info("Compaction completed successfully. New file: {}", mergedFile.getName());
+            // After merging, update the keyDir
+            updateKeyDirectory(mergedSegmentId, relocations);
         }
+
+        // Remove the old files after successful compaction
+        cleanUpOldFiles(segmentsToMerge);
+
+        long duration = System.currentTimeMillis() - start;
+        compactions.incrementAndGet();
+        segmentsMerged.addAndGet(segmentsToMerge.size());
+        bytesReclaimed.addAndGet(Math.max(0, inputBytes - mergedFile.length()));
+        lastMergeDurationMs.set(duration);
+        totalMergeDurationMs.addAndGet(duration);
+        logger.info("Compaction completed successfully in {} ms. New file: {} ({} of {} bytes kept)",
+                duration, mergedFile.getName(), mergedFile.length(), inputBytes);
     }
 
-    // Update the key directory after merging files
-    private void updateKeyDirectory(Map<Long, KeyDirValue> newKeyDir) {
-        this.keyDirMap.putAll(newKeyDir);
+    private static int writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int written = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return written;
     }
 
-    private List<File> getFilesToMerge(List<File> segmentFiles) {
-        // Merge all non-active segmentFiles
-        List<File> filesToMerge = new ArrayList<>();
-        for (File file : segmentFiles) {
-            if (!file.equals(this.activeFile.get())) {
-                filesToMerge.add(file);
+    // Update the key directory after merging files, keys overwritten during the merge keep their newer value
+    private void updateKeyDirectory(int mergedSegmentId, List<Relocation> relocations) {
+        for (Relocation relocation : relocations) {
+            if (keyDir.relocate(relocation.key(), relocation.fromSegmentId(), relocation.fromPosition(),
+                    mergedSegmentId, relocation.toPosition(), relocation.valueSize())) {
+                segmentManager.addLiveBytes(mergedSegmentId, NUM_BYTES_VALUE_WRITE_START_AFTER + relocation.valueSize());
             }
         }
-        return filesToMerge;
     }
 
     // Clean up old files after compaction
-    private void cleanUpOldFiles(List<File> filesToMerge) {
-        for (File file : filesToMerge) {
+    private void cleanUpOldFiles(List<Segment> mergedSegments) {
+        for (Segment segment : mergedSegments) {
+            File file = segment.getFile();
             String baseFileName = Utils.removeExtension(file.getName());
-            File hintFile = new File(HINT_FILES_DIR, baseFileName + HINT_FILE_EXTENSION);
+            File hintFile = segmentManager.hintFile(baseFileName);
+            // Close the shared read handle (after in-flight reads finish) before deleting the file
+            segmentManager.retire(segment.getId());
             if (file.exists() && file.delete()) {
                 logger.info("Deleted old file: {}", file.getName());
             }
@@ -1,13 +1,45 @@
 package org.example;
 
 public final class Constants {
-    public static final String BIT_CASK_DIR = "data/segments";
+    public static final String DEFAULT_BIT_CASK_DIR = "data";
+    public static final String SEGMENTS_DIR = "segments";
     public static final String BIT_CASK_EXTENSION = ".bitcask";
-    public static final String HINT_FILES_DIR = "data/hints";
-    public static final String CLIENT_DIR = "client";
+    public static final String HINTS_DIR = "hints";
     public static final String HINT_FILE_EXTENSION = ".hint";
     public static final Integer FILE_THRESHOLD = 100 * 1024; // 10kb
-    public static final Integer COMPACTION_THRESHOLD = 10;
     public static final int BATCH_SIZE = 1000;
+    public static final int WRITE_QUEUE_CAPACITY = 10_000;
+    public static final int MAX_WRITE_BATCH_SIZE = 1024;
+    public static final String DEFAULT_DURABILITY_POLICY = "batch";
+    public static final long DEFAULT_FSYNC_INTERVAL_MS = 1000;
+    public static final long DEFAULT_COMPACTION_INTERVAL_MS = 60_000;
+    public static final double DEFAULT_COMPACTION_GARBAGE_RATIO = 0.5;
+    public static final long DEFAULT_COMPACTION_BYTES_PER_SECOND = 8 * 1024 * 1024;
+    public static final long DEFAULT_CACHE_BYTES = 16 * 1024 * 1024;
+    public static final long REBALANCE_DRAIN_TIMEOUT_MS = 30_000;
+    public static final long FAILED_BATCH_RETRY_BACKOFF_MS = 1_000;
+    public static final String DEDUPE_SNAPSHOT_NAME = "ingestion";
+    public static final String DEDUPE_SNAPSHOT_EXTENSION = ".dedupe";
+    public static final int DEFAULT_DEDUPE_WINDOW = 256;
+    public static final long DEFAULT_DEDUPE_SNAPSHOT_INTERVAL_MS = 5_000;
+    public static final String WEATHER_METRICS_TOPIC = "Weather-Metrics";
+    public static final String INVALID_MESSAGES_TOPIC = "Invalid-Message";
+    public static final int DEFAULT_DEAD_LETTER_QUEUE_CAPACITY = 10_000;
+    public static final long DEFAULT_DEAD_LETTER_LINGER_MS = 100;
+    public static final int DEFAULT_DEAD_LETTER_BATCH_BYTES = 64 * 1024;
+    public static final long DEFAULT_DEAD_LETTER_BUFFER_BYTES = 8 * 1024 * 1024;
+    public static final String DEFAULT_ARCHIVE_DIR = "data";
+    public static final int DEFAULT_ARCHIVE_QUEUE_CAPACITY = 50_000;
+    public static final long DEFAULT_ARCHIVE_MAX_LATENCY_MS = 60_000;
+    public static final String DEFAULT_ARCHIVE_BACKPRESSURE = "block";
+    public static final long DEFAULT_ARCHIVE_TARGET_FILE_BYTES = 128L * 1024 * 1024;
+    public static final int DEFAULT_ARCHIVE_MAX_OPEN_FILES = 1024;
+    public static final String ARCHIVE_MANIFEST_FILE = "_manifest.json";
+    public static final long DEFAULT_ARCHIVE_COMPACTION_INTERVAL_MS = 10 * 60_000;
+    public static final long DEFAULT_ARCHIVE_COMPACTION_GRACE_MS = 5 * 60_000;
+    public static final long DEFAULT_ARCHIVE_COMPACTION_BYTES_PER_SECOND = 8 * 1024 * 1024;
+    public static final long DEFAULT_ARCHIVE_COMPACTION_MAX_PARTITION_BYTES = 64L * 1024 * 1024;
+    public static final double DEFAULT_REPLAY_SPEED = 1;
+    public static final long DEFAULT_REPLAY_LINGER_MS = 5;
     public static final int NUM_BYTES_VALUE_WRITE_START_AFTER = Long.BYTES * 2 + Integer.BYTES;
 }
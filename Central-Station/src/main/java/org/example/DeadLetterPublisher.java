@@ -0,0 +1,208 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.example.model.DeadLetterStats;
+import org.example.model.RejectionReason;
+import org.example.model.WeatherMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.example.Constants.*;
+
+// Dead-letter stage of the consumer: rejected Weather-Metrics records go to the Invalid-Message topic with the
+// rule they failed and their source position as headers. Callers only offer to a bounded queue and never wait,
+// when it is full the record is dropped and counted, so a flood of bad data cannot stall the workers.
+// A dedicated thread owns the producer, which batches for lingerMs and whose memory is bounded by bufferBytes.
+@Component
+public class DeadLetterPublisher {
+    public static final String REASON_HEADER = "dead-letter.reason";
+    public static final String ERROR_HEADER = "dead-letter.error";
+    public static final String SOURCE_TOPIC_HEADER = "dead-letter.source.topic";
+    public static final String SOURCE_PARTITION_HEADER = "dead-letter.source.partition";
+    public static final String SOURCE_OFFSET_HEADER = "dead-letter.source.offset";
+    private static final long IDLE_POLL_MS = 100;
+
+    // Raw payload when the record could not be decoded, the decoded message otherwise
+    private record DeadLetter(TopicPartition source, long offset, RejectionReason reason, WeatherMessage message,
+                              byte[] payload, String error) {
+    }
+
+    private final Producer<String, byte[]> producer;
+    private final BlockingQueue<DeadLetter> queue;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "dead-letter-publisher"));
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private volatile boolean running = true;
+    private final Logger logger = LoggerFactory.getLogger(DeadLetterPublisher.class);
+
+    private final Map<RejectionReason, LongAdder> rejected = new EnumMap<>(RejectionReason.class);
+    private final LongAdder published = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+
+    // Used by Spring, everything is configured through the environment
+    public DeadLetterPublisher() {
+        this(Integer.parseInt(System.getenv().getOrDefault(
+                        "DEAD_LETTER_QUEUE_CAPACITY", String.valueOf(DEFAULT_DEAD_LETTER_QUEUE_CAPACITY))),
+                Long.parseLong(System.getenv().getOrDefault(
+                        "DEAD_LETTER_LINGER_MS", String.valueOf(DEFAULT_DEAD_LETTER_LINGER_MS))),
+                Integer.parseInt(System.getenv().getOrDefault(
+                        "DEAD_LETTER_BATCH_BYTES", String.valueOf(DEFAULT_DEAD_LETTER_BATCH_BYTES))),
+                Long.parseLong(System.getenv().getOrDefault(
+                        "DEAD_LETTER_BUFFER_BYTES", String.valueOf(DEFAULT_DEAD_LETTER_BUFFER_BYTES))));
+    }
+
+    public DeadLetterPublisher(int queueCapacity, long lingerMs, int batchBytes, long bufferBytes) {
+        this(new KafkaProducer<>(producerProperties(lingerMs, batchBytes, bufferBytes)), queueCapacity);
+    }
+
+    public DeadLetterPublisher(Producer<String, byte[]> producer, int queueCapacity) {
+        this.producer = producer;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        for (RejectionReason reason : RejectionReason.values()) {
+            rejected.put(reason, new LongAdder());
+        }
+        executor.submit(this::run);
+    }
+
+    private static Properties producerProperties(long lingerMs, int batchBytes, long bufferBytes) {
+        Properties props = new Properties();
+        props.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "kafka:9092");
+        props.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        props.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.setProperty(ProducerConfig.LINGER_MS_CONFIG, String.valueOf(lingerMs));
+        props.setProperty(ProducerConfig.BATCH_SIZE_CONFIG, String.valueOf(batchBytes));
+        props.setProperty(ProducerConfig.BUFFER_MEMORY_CONFIG, String.valueOf(bufferBytes));
+        // Cheaper than gzip on the publishing thread, which compresses while appending to a batch
+        props.setProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        return props;
+    }
+
+    // Decoded record that broke a rule, or an empty one (message is null)
+    public void reject(TopicPartition source, long offset, WeatherMessage message, RejectionReason reason) {
+        enqueue(new DeadLetter(source, offset, reason, message, null, null));
+    }
+
+    public void rejectMalformed(TopicPartition source, long offset, byte[] payload, String error) {
+        enqueue(new DeadLetter(source, offset, RejectionReason.MALFORMED, null, payload, error));
+    }
+
+    private void enqueue(DeadLetter deadLetter) {
+        rejected.get(deadLetter.reason()).increment();
+        if (!running || !queue.offer(deadLetter)) dropped.increment();
+    }
+
+    // Publishes what is queued and waits for the producer to deliver it
+    @PreDestroy
+    public void close() {
+        running = false;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("Dead-letter publisher did not publish its queue in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        producer.close(Duration.ofSeconds(10));
+    }
+
+    public DeadLetterStats getStats() {
+        Map<RejectionReason, Long> rejectedByReason = new EnumMap<>(RejectionReason.class);
+        rejected.forEach((reason, count) -> rejectedByReason.put(reason, count.sum()));
+        return new DeadLetterStats(
+                rejectedByReason,
+                queue.size(),
+                published.sum(),
+                failed.sum(),
+                dropped.sum(),
+                inFlight.sum()
+        );
+    }
+
+    private void run() {
+        while (running || !queue.isEmpty()) {
+            try {
+                DeadLetter deadLetter = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (deadLetter != null) send(deadLetter);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                // An exception would stop the publishing thread for good
+                failed.increment();
+                logger.error("Failed to publish a dead letter", e);
+            }
+        }
+    }
+
+    // Blocks while the producer's buffer is full or the topic metadata is unknown, only this thread waits
+    private void send(DeadLetter deadLetter) {
+        byte[] value = deadLetter.payload();
+        String key = null;
+        WeatherMessage message = deadLetter.message();
+        if (message != null) {
+            try {
+                // The original bytes are gone once decoded, forward the same fields
+                value = objectMapper.writeValueAsBytes(message);
+            } catch (JsonProcessingException e) {
+                logger.debug("Failed to encode a rejected message: {}", e.getMessage());
+            }
+            // Keeps one station's rejections in order on one partition
+            if (message.station_id() != null) key = String.valueOf(message.station_id());
+        }
+
+        RecordHeaders headers = new RecordHeaders();
+        header(headers, REASON_HEADER, deadLetter.reason().name());
+        if (deadLetter.error() != null) header(headers, ERROR_HEADER, deadLetter.error());
+        header(headers, SOURCE_TOPIC_HEADER, deadLetter.source().topic());
+        header(headers, SOURCE_PARTITION_HEADER, String.valueOf(deadLetter.source().partition()));
+        header(headers, SOURCE_OFFSET_HEADER, String.valueOf(deadLetter.offset()));
+
+        inFlight.increment();
+        try {
+            // Runs on the producer's I/O thread, counters only
+            producer.send(new ProducerRecord<>(INVALID_MESSAGES_TOPIC, null, key, value, headers), (metadata, e) -> {
+                inFlight.decrement();
+                if (e == null) {
+                    published.increment();
+                } else {
+                    failed.increment();
+                    logger.debug("Failed to publish a dead letter from {}@{}: {}",
+                            deadLetter.source(), deadLetter.offset(), e.getMessage());
+                }
+            });
+        } catch (RuntimeException e) {
+            // Thrown instead of completing the callback, e.g. once the producer is closed
+            inFlight.decrement();
+            throw e;
+        }
+    }
+
+    private static void header(RecordHeaders headers, String key, String value) {
+        headers.add(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,229 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Sequence numbers (s_no) recently accepted per station, to drop readings Kafka delivers again after a restart
+// or rebalance. Each station keeps its highest s_no and a bitmap of the windowBits numbers up to it, in
+// primitive arrays indexed through an open addressing table (linear probing) over station ids, like KeyDir.
+// A station that restarts numbers its readings from 1 again: a reading below the window, or one below the highest
+// s_no with a status_timestamp newer than every recorded reading, is taken as a restart and resets the window.
+// Readings delivered again are never newer than the highest one, a running station numbers them in time order.
+// Snapshots are written next to the BitCask hint files under their own extension, so recovery ignores them.
+public class DedupeWindow {
+    private static final int VERSION = 2;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final int windowBits;
+    private final int words;
+    private long[] stationIds;
+    private boolean[] used;
+    private long[] highest;
+    private long[] latest; // newest status_timestamp recorded since the last reset
+    private long[] bits; // words per slot, bit i of the slot is highest - i
+    private int size;
+    private final Logger logger = LoggerFactory.getLogger(DedupeWindow.class);
+
+    public DedupeWindow(int windowBits) {
+        if (windowBits <= 0 || windowBits % Long.SIZE != 0) {
+            throw new IllegalArgumentException("Dedupe window must be a positive multiple of 64: " + windowBits);
+        }
+        this.windowBits = windowBits;
+        this.words = windowBits / Long.SIZE;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        stationIds = new long[capacity];
+        used = new boolean[capacity];
+        highest = new long[capacity];
+        latest = new long[capacity];
+        bits = new long[capacity * words];
+    }
+
+    // Records the reading, false if it was already recorded. timestamp is Long.MIN_VALUE when unknown.
+    public synchronized boolean markIfNew(long stationId, long sNo, long timestamp) {
+        int slot = slotOf(stationId);
+        if (!used[slot]) {
+            if (size + 1 > stationIds.length * LOAD_FACTOR) {
+                grow();
+                slot = slotOf(stationId);
+            }
+            used[slot] = true;
+            stationIds[slot] = stationId;
+            size++;
+            reset(slot, sNo, timestamp);
+            return true;
+        }
+        long distance = highest[slot] - sNo;
+        if (distance < 0) {
+            // Newer than every recorded reading, slide the window forward
+            shift(slot, -distance);
+            highest[slot] = sNo;
+            latest[slot] = Math.max(latest[slot], timestamp);
+            bits[slot * words] |= 1L;
+            return true;
+        }
+        if (distance >= windowBits || (distance > 0 && timestamp > latest[slot])) {
+            // Far behind the window, or numbered lower but taken later: the station restarted
+            reset(slot, sNo, timestamp);
+            return true;
+        }
+        int word = slot * words + (int) (distance >>> 6);
+        long mask = 1L << (distance & 63);
+        if ((bits[word] & mask) != 0) return false;
+        bits[word] |= mask;
+        latest[slot] = Math.max(latest[slot], timestamp);
+        return true;
+    }
+
+    // Forgets a reading whose write failed, it has to be accepted when it is delivered again
+    public synchronized void unmark(long stationId, long sNo) {
+        int slot = slotOf(stationId);
+        if (!used[slot]) return;
+        long distance = highest[slot] - sNo;
+        if (distance < 0 || distance >= windowBits) return;
+        bits[slot * words + (int) (distance >>> 6)] &= ~(1L << (distance & 63));
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private int slotOf(long stationId) {
+        int mask = stationIds.length - 1;
+        int slot = (int) ((stationId * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (used[slot] && stationIds[slot] != stationId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void reset(int slot, long sNo, long timestamp) {
+        highest[slot] = sNo;
+        latest[slot] = timestamp;
+        int base = slot * words;
+        for (int w = 0; w < words; w++) bits[base + w] = 0;
+        bits[base] = 1L;
+    }
+
+    // Moves every recorded bit n positions towards the old end, bits past it fall off
+    private void shift(int slot, long n) {
+        int base = slot * words;
+        if (n >= windowBits) {
+            for (int w = 0; w < words; w++) bits[base + w] = 0;
+            return;
+        }
+        int wordShift = (int) (n >>> 6);
+        int bitShift = (int) (n & 63);
+        for (int w = words - 1; w >= 0; w--) {
+            int source = w - wordShift;
+            long value = source >= 0 ? bits[base + source] << bitShift : 0;
+            if (bitShift != 0 && source >= 1) value |= bits[base + source - 1] >>> (Long.SIZE - bitShift);
+            bits[base + w] = value;
+        }
+    }
+
+    private void grow() {
+        long[] oldStationIds = stationIds;
+        boolean[] oldUsed = used;
+        long[] oldHighest = highest;
+        long[] oldLatest = latest;
+        long[] oldBits = bits;
+        allocate(oldStationIds.length * 2);
+        for (int i = 0; i < oldStationIds.length; i++) {
+            if (!oldUsed[i]) continue;
+            int slot = slotOf(oldStationIds[i]);
+            used[slot] = true;
+            stationIds[slot] = oldStationIds[i];
+            highest[slot] = oldHighest[i];
+            latest[slot] = oldLatest[i];
+            System.arraycopy(oldBits, i * words, bits, slot * words, words);
+        }
+    }
+
+    public void save(File file) throws IOException {
+        save(file, snapshot());
+    }
+
+    // Written to a temporary file and renamed over the previous snapshot
+    public void save(File file, byte[] snapshot) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(snapshot));
+            channel.force(false);
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // [version][windowBits][size] then per station [stationId][highest][latest][words], then a CRC32 of all of it
+    public synchronized byte[] snapshot() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(3 * Integer.BYTES + size * (3 + words) * Long.BYTES + Long.BYTES);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(VERSION);
+        out.writeInt(windowBits);
+        out.writeInt(size);
+        for (int slot = 0; slot < stationIds.length; slot++) {
+            if (!used[slot]) continue;
+            out.writeLong(stationIds[slot]);
+            out.writeLong(highest[slot]);
+            out.writeLong(latest[slot]);
+            for (int w = 0; w < words; w++) out.writeLong(bits[slot * words + w]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    // Starts empty when the snapshot is missing, damaged or was taken with another window size
+    public void load(File file) {
+        if (!file.exists()) return;
+        try {
+            byte[] snapshot = Files.readAllBytes(file.toPath());
+            if (snapshot.length < 3 * Integer.BYTES + Long.BYTES) throw new EOFException("Truncated snapshot");
+            CRC32 crc = new CRC32();
+            crc.update(snapshot, 0, snapshot.length - Long.BYTES);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+            in.skipNBytes(snapshot.length - Long.BYTES);
+            if (in.readLong() != crc.getValue()) throw new IOException("Checksum mismatch");
+
+            in = new DataInputStream(new ByteArrayInputStream(snapshot));
+            int version = in.readInt();
+            int snapshotWindowBits = in.readInt();
+            if (version != VERSION || snapshotWindowBits != windowBits) {
+                logger.warn("Ignoring dedupe snapshot {} (version {}, window {})", file, version, snapshotWindowBits);
+                return;
+            }
+            int count = in.readInt();
+            synchronized (this) {
+                for (int i = 0; i < count; i++) {
+                    long stationId = in.readLong();
+                    long stationHighest = in.readLong();
+                    long stationLatest = in.readLong();
+                    if (size + 1 > stationIds.length * LOAD_FACTOR) grow();
+                    int slot = slotOf(stationId);
+                    if (!used[slot]) size++;
+                    used[slot] = true;
+                    stationIds[slot] = stationId;
+                    highest[slot] = stationHighest;
+                    latest[slot] = stationLatest;
+                    for (int w = 0; w < words; w++) bits[slot * words + w] = in.readLong();
+                }
+            }
+            logger.info("Loaded the dedupe window of {} stations", count);
+        } catch (IOException e) {
+            logger.warn("Ignoring damaged dedupe snapshot {}: {}", file, e.getMessage());
+        }
+    }
+}
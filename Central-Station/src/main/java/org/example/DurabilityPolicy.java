@@ -0,0 +1,8 @@
+package org.example;
+
+// When a BitCask write is acknowledged to the caller
+public enum DurabilityPolicy {
+    NONE,     // once written to the page cache, never fsync explicitly
+    INTERVAL, // after the next periodic fsync (every BITCASK_FSYNC_INTERVAL_MS)
+    BATCH     // after the fsync that follows every group-committed batch
+}
@@ -0,0 +1,136 @@
+package org.example;
+
+import org.example.model.HintFileEntry;
+import org.example.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static org.example.Constants.*;
+
+// Rebuilds the KeyDir from hint files on startup.
+// Every hint file is memory-mapped and decoded on a fork-join pool into its own KeyDir (newest entry
+// per key within the file), then the per-file results are merged in file order: the newest
+// timestamp wins, on ties the later file wins.
+public class HintFileRecovery {
+
+    private static final Logger logger = LoggerFactory.getLogger(HintFileRecovery.class);
+
+    private final SegmentManager segmentManager;
+    private final KeyDir keyDir;
+
+    private record DecodedHintFile(int segmentId, KeyDir entries, int entryCount) {
+    }
+
+    public HintFileRecovery(SegmentManager segmentManager, KeyDir keyDir) {
+        this.segmentManager = segmentManager;
+        this.keyDir = keyDir;
+    }
+
+    // hintFiles must be sorted oldest first, all but the last segment are sealed
+    public void recover(File[] hintFiles) throws IOException {
+        long start = System.nanoTime();
+
+        List<Callable<DecodedHintFile>> tasks = new ArrayList<>(hintFiles.length);
+        for (int i = 0; i < hintFiles.length; i++) {
+            File hintFile = hintFiles[i];
+            File segmentFile = segmentManager.segmentFile(Utils.removeExtension(hintFile.getName()));
+            if (!segmentFile.exists()) {
+                logger.warn("Skipping hint file {} without a segment file", hintFile.getName());
+                continue;
+            }
+            // Ids are handed out in file order, before decoding starts
+            int segmentId = segmentManager.open(segmentFile);
+            if (i < hintFiles.length - 1) {
+                segmentManager.seal(segmentId);
+            }
+            long segmentSize = segmentFile.length();
+            tasks.add(() -> decode(hintFile, segmentId, segmentSize));
+        }
+        long registered = System.nanoTime();
+
+        List<DecodedHintFile> decodedFiles = decodeInParallel(tasks);
+        long decoded = System.nanoTime();
+
+        long entryCount = 0;
+        for (DecodedHintFile decodedFile : decodedFiles) {
+            entryCount += decodedFile.entryCount();
+            int segmentId = decodedFile.segmentId();
+            decodedFile.entries().forEach((key, ignored, valuePosition, valueSize, timeStamp) -> {
+                long currentTimeStamp = keyDir.getTimeStamp(key);
+                if (currentTimeStamp == KeyDir.NO_TIMESTAMP || timeStamp >= currentTimeStamp) {
+                    keyDir.put(key, segmentId, valuePosition, valueSize, timeStamp);
+                }
+            });
+        }
+        // Everything the KeyDir does not point to is garbage for the Compactor
+        keyDir.forEach((key, segmentId, valuePosition, valueSize, timeStamp) ->
+                segmentManager.addLiveBytes(segmentId, NUM_BYTES_VALUE_WRITE_START_AFTER + valueSize));
+        long merged = System.nanoTime();
+
+        logger.info("Recovered {} keys from {} entries in {} hint files in {} ms (open {} ms, decode {} ms, merge {} ms)",
+                keyDir.size(), entryCount, decodedFiles.size(), toMillis(merged - start),
+                toMillis(registered - start), toMillis(decoded - registered), toMillis(merged - decoded));
+    }
+
+    private static List<DecodedHintFile> decodeInParallel(List<Callable<DecodedHintFile>> tasks) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<DecodedHintFile> decodedFiles = new ArrayList<>(tasks.size());
+            for (Future<DecodedHintFile> future : pool.invokeAll(tasks)) {
+                decodedFiles.add(future.get());
+            }
+            return decodedFiles;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) throw ioException;
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Recovery interrupted", e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Hint entry layout: [key][valuePosition][valueSize][timeStamp]
+    private static DecodedHintFile decode(File hintFile, int segmentId, long segmentSize) throws IOException {
+        KeyDir entries = new KeyDir();
+        int entrySize = HintFileEntry.getSize();
+        try (FileChannel channel = FileChannel.open(hintFile.toPath(), StandardOpenOption.READ)) {
+            // A crash can leave a torn entry at the end of the file, ignore it
+            int entryCount = (int) (channel.size() / entrySize);
+            if (entryCount == 0) return new DecodedHintFile(segmentId, entries, 0);
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) entryCount * entrySize);
+            for (int offset = 0; offset < entryCount * entrySize; offset += entrySize) {
+                long key = buffer.getLong(offset);
+                long valuePosition = buffer.getLong(offset + Long.BYTES);
+                int valueSize = buffer.getInt(offset + 2 * Long.BYTES);
+                long timeStamp = buffer.getLong(offset + 2 * Long.BYTES + Integer.BYTES);
+                // Hint entry made it to disk but its value did not
+                if (valueSize <= 0 || valuePosition + valueSize > segmentSize) continue;
+
+                long currentTimeStamp = entries.getTimeStamp(key);
+                if (currentTimeStamp == KeyDir.NO_TIMESTAMP || timeStamp >= currentTimeStamp) {
+                    entries.put(key, segmentId, valuePosition, valueSize, timeStamp);
+                }
+            }
+            return new DecodedHintFile(segmentId, entries, entryCount);
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1_000_000;
+    }
+}
@@ -0,0 +1,80 @@
+package org.example;
+
+import org.example.model.IngestionStats;
+import org.example.model.IngestionStats.StageLatency;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Batch sizes and per-stage latencies of PollingConsumer, updated from the polling and worker threads
+class IngestionMetrics {
+
+    static class Stage {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private volatile long lastNanos;
+
+        void record(long startNanos) {
+            long nanos = System.nanoTime() - startNanos;
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            lastNanos = nanos;
+        }
+
+        private StageLatency snapshot() {
+            long n = count.sum();
+            return new StageLatency(
+                    n,
+                    TimeUnit.NANOSECONDS.toMicros(lastNanos),
+                    n == 0 ? 0 : totalNanos.sum() / 1000.0 / n,
+                    TimeUnit.NANOSECONDS.toMicros(maxNanos.get())
+            );
+        }
+    }
+
+    final Stage dispatch = new Stage();
+    final Stage validate = new Stage();
+    final Stage put = new Stage();
+    final Stage archive = new Stage();
+    final Stage commit = new Stage();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong records = new AtomicLong();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private volatile int lastBatchSize;
+
+    void batch(int size) {
+        batches.incrementAndGet();
+        records.addAndGet(size);
+        lastBatchSize = size;
+    }
+
+    void rejected() {
+        rejected.increment();
+    }
+
+    void duplicate() {
+        duplicates.increment();
+    }
+
+    IngestionStats snapshot() {
+        long batchCount = batches.get();
+        long recordCount = records.get();
+        return new IngestionStats(
+                batchCount,
+                recordCount,
+                rejected.sum(),
+                duplicates.sum(),
+                lastBatchSize,
+                batchCount == 0 ? 0 : (double) recordCount / batchCount,
+                dispatch.snapshot(),
+                validate.snapshot(),
+                put.snapshot(),
+                archive.snapshot(),
+                commit.snapshot()
+        );
+    }
+}
@@ -0,0 +1,271 @@
+package org.example;
+
+import org.example.model.KeyDirValue;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+// In-memory key directory: station id -> location of the latest value on disk.
+// Open addressing (linear probing) over a single long[] with fixed-width slots:
+//   [key][valuePosition][timeStamp][segmentId << 32 | valueSize]
+// so an entry costs 32 bytes of table and no objects, instead of the ~143 bytes of node, boxed key,
+// record and boxed fields a ConcurrentHashMap<Long, KeyDirValue> entry costs.
+// Measured retained heap (JDK 21, compressed oops, tables included):
+//   1M stations:  ConcurrentHashMap ~ 143 MB, KeyDir ~ 67 MB (2^21 slots)
+//  10M stations:  ConcurrentHashMap ~ 1.43 GB, KeyDir ~ 537 MB (2^24 slots)
+// Writers serialize on a StampedLock, readers use optimistic reads and only fall back
+// to the read lock if a write raced with them.
+// A key's home slot comes from the high bits of its hash, so growing the table splits every range of slots in
+// place: a chunked iteration (readChunk) can keep its cursor across resizes.
+public class KeyDir {
+
+    private static final int SLOT_WIDTH = 4;
+    private static final int KEY = 0;
+    private static final int POSITION = 1;
+    private static final int TIMESTAMP = 2;
+    private static final int META = 3; // 0 marks an empty slot, valueSize is never 0
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int CHUNK_SLOTS = 4096;
+
+    // Cursor of readChunk once every entry was read, cursors are positions in the 32-bit hash space
+    public static final long SCAN_END = 1L << 32;
+
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private final StampedLock lock = new StampedLock();
+    private long[] table;
+    private int size;
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, int segmentId, long valuePosition, int valueSize, long timeStamp);
+    }
+
+    // Entries copied out of the table by readChunk, reused from one chunk to the next
+    public static final class Chunk {
+        private long[] slots = new long[CHUNK_SLOTS * SLOT_WIDTH];
+        private int size;
+
+        public int size() {
+            return size;
+        }
+
+        public void forEach(EntryConsumer consumer) {
+            for (int slot = 0; slot < size * SLOT_WIDTH; slot += SLOT_WIDTH) {
+                long meta = slots[slot + META];
+                consumer.accept(slots[slot + KEY], (int) (meta >>> 32), slots[slot + POSITION], (int) meta,
+                        slots[slot + TIMESTAMP]);
+            }
+        }
+
+        private void add(long[] table, int slot) {
+            if ((size + 1) * SLOT_WIDTH > slots.length) slots = Arrays.copyOf(slots, slots.length * 2);
+            System.arraycopy(table, slot, slots, size * SLOT_WIDTH, SLOT_WIDTH);
+            size++;
+        }
+    }
+
+    public KeyDir() {
+        this.table = new long[INITIAL_CAPACITY * SLOT_WIDTH];
+    }
+
+    public KeyDirValue get(long key) {
+        long stamp = lock.tryOptimisticRead();
+        KeyDirValue value = find(key);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                value = find(key);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    // Allocation-free variant of get(key).timeStamp(), returns NO_TIMESTAMP if the key is absent
+    public long getTimeStamp(long key) {
+        long stamp = lock.tryOptimisticRead();
+        long timeStamp = findTimeStamp(key);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                timeStamp = findTimeStamp(key);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return timeStamp;
+    }
+
+    // Returns the entry that was replaced, or null if the key is new
+    public KeyDirValue put(long key, int segmentId, long valuePosition, int valueSize, long timeStamp) {
+        if (valueSize <= 0) throw new IllegalArgumentException("Invalid value size: " + valueSize);
+        long stamp = lock.writeLock();
+        try {
+            if (size + 1 > (table.length / SLOT_WIDTH) * LOAD_FACTOR) {
+                resize();
+            }
+            int slot = slotOf(table, key);
+            KeyDirValue previous = null;
+            long previousMeta = table[slot + META];
+            if (previousMeta == 0) {
+                size++;
+            } else {
+                previous = new KeyDirValue((int) (previousMeta >>> 32), table[slot + POSITION], (int) previousMeta, table[slot + TIMESTAMP]);
+            }
+            table[slot + KEY] = key;
+            table[slot + POSITION] = valuePosition;
+            table[slot + TIMESTAMP] = timeStamp;
+            table[slot + META] = ((long) segmentId << 32) | (valueSize & 0xFFFFFFFFL);
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Points the key to a copy of its value (compaction), unless a newer put moved it meanwhile.
+    // The copy may be re-encoded in a newer format, so its size can differ.
+    public boolean relocate(long key, int fromSegmentId, long fromPosition, int toSegmentId, long toPosition, int toValueSize) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = probe(table, key);
+            if (slot < 0) return false;
+            long meta = table[slot + META];
+            if ((int) (meta >>> 32) != fromSegmentId || table[slot + POSITION] != fromPosition) return false;
+            table[slot + POSITION] = toPosition;
+            table[slot + META] = ((long) toSegmentId << 32) | (toValueSize & 0xFFFFFFFFL);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int currentSize = size;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                currentSize = size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return currentSize;
+    }
+
+    // Visits every entry one chunk at a time, see readChunk. Not a point-in-time view: keys present for the whole
+    // iteration are visited exactly once, with the location they had when their chunk was read.
+    public void forEach(EntryConsumer consumer) {
+        Chunk chunk = new Chunk();
+        long cursor = 0;
+        while (cursor != SCAN_END) {
+            cursor = readChunk(cursor, chunk);
+            chunk.forEach(consumer);
+        }
+    }
+
+    // Copies the entries whose home slot lies in the next CHUNK_SLOTS slots from the cursor on into the chunk and
+    // returns the cursor of the following chunk. Taken under an optimistic read, so writers are never blocked for
+    // more than one chunk and memory does not grow with the number of keys.
+    public long readChunk(long cursor, Chunk chunk) {
+        long stamp = lock.tryOptimisticRead();
+        long next = copyChunk(this.table, cursor, chunk);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                next = copyChunk(this.table, cursor, chunk);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return next;
+    }
+
+    // May run without a lock like find. Entries displaced past the end of the range by linear probing sit in the
+    // run of occupied slots that follows it, possibly wrapping around to the start of the table.
+    private static long copyChunk(long[] table, long cursor, Chunk chunk) {
+        chunk.size = 0;
+        int capacity = table.length / SLOT_WIDTH;
+        int mask = capacity - 1;
+        int shift = shiftOf(capacity);
+        int from = (int) (cursor >>> shift);
+        int to = Math.min(capacity, from + CHUNK_SLOTS);
+        int index = from;
+        for (int step = 0; step < capacity; step++) {
+            int slot = index * SLOT_WIDTH;
+            if (table[slot + META] == 0) {
+                if (step >= to - from) break;
+            } else {
+                int home = hash(table[slot + KEY]) >>> shift;
+                if (home >= from && home < to) chunk.add(table, slot);
+            }
+            index = (index + 1) & mask;
+        }
+        return to == capacity ? SCAN_END : (long) to << shift;
+    }
+
+    // May run without a lock: must not throw or loop forever on a torn table, the caller validates
+    private KeyDirValue find(long key) {
+        long[] current = this.table;
+        int slot = probe(current, key);
+        if (slot < 0) return null;
+        long meta = current[slot + META];
+        return new KeyDirValue((int) (meta >>> 32), current[slot + POSITION], (int) meta, current[slot + TIMESTAMP]);
+    }
+
+    private long findTimeStamp(long key) {
+        long[] current = this.table;
+        int slot = probe(current, key);
+        return slot < 0 ? NO_TIMESTAMP : current[slot + TIMESTAMP];
+    }
+
+    private static int probe(long[] table, long key) {
+        int capacity = table.length / SLOT_WIDTH;
+        int mask = capacity - 1;
+        int index = hash(key) >>> shiftOf(capacity);
+        for (int i = 0; i < capacity; i++) {
+            int slot = index * SLOT_WIDTH;
+            if (table[slot + META] == 0) return -1;
+            if (table[slot + KEY] == key) return slot;
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Slot holding the key, or the empty slot where it should be inserted (table is never full)
+    private static int slotOf(long[] table, long key) {
+        int capacity = table.length / SLOT_WIDTH;
+        int mask = capacity - 1;
+        int index = hash(key) >>> shiftOf(capacity);
+        while (true) {
+            int slot = index * SLOT_WIDTH;
+            if (table[slot + META] == 0 || table[slot + KEY] == key) return slot;
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void resize() {
+        long[] oldTable = this.table;
+        long[] newTable = new long[oldTable.length * 2];
+        for (int slot = 0; slot < oldTable.length; slot += SLOT_WIDTH) {
+            if (oldTable[slot + META] == 0) continue;
+            int newSlot = slotOf(newTable, oldTable[slot + KEY]);
+            System.arraycopy(oldTable, slot, newTable, newSlot, SLOT_WIDTH);
+        }
+        this.table = newTable;
+    }
+
+    // Home slot = top log2(capacity) bits of the hash
+    private static int shiftOf(int capacity) {
+        return Integer.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    private static int hash(long key) {
+        // Station ids are dense and sequential, spread them over the table (Fibonacci hashing)
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
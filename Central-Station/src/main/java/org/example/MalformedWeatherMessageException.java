@@ -0,0 +1,23 @@
+package org.example;
+
+import org.apache.kafka.common.errors.SerializationException;
+
+// Thrown by WeatherMessageDeserializer, keeps the raw payload so it can still be forwarded as an invalid message
+public class MalformedWeatherMessageException extends SerializationException {
+
+    private final byte[] payload;
+
+    public MalformedWeatherMessageException(String message, byte[] payload) {
+        super(message);
+        this.payload = payload;
+    }
+
+    public MalformedWeatherMessageException(String message, byte[] payload, Throwable cause) {
+        super(message, cause);
+        this.payload = payload;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+}
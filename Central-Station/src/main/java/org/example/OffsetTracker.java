@@ -0,0 +1,107 @@
+package org.example;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Offsets polled from each partition that are still being processed.
+// Workers finish records of different stations in any order, but Kafka can only be told about a prefix:
+// the committable offset of a partition is its lowest pending offset, or the next offset to poll once
+// nothing is pending. Records are registered and offsets committed by the polling thread only.
+// Records whose batch failed stay pending, and once nothing else of their partition is in flight the polling
+// thread rewinds the partition to the first of them and consumes them again.
+public class OffsetTracker {
+
+    private static class PartitionState {
+        private final ConcurrentSkipListSet<Long> pending = new ConcurrentSkipListSet<>();
+        private final ConcurrentSkipListSet<Long> failed = new ConcurrentSkipListSet<>();
+        private volatile long nextOffset;
+        private long lastCommitted = -1;
+
+        private long committable() {
+            // Weakly consistent: a concurrently completed offset can only make the result too low
+            Iterator<Long> iterator = pending.iterator();
+            return iterator.hasNext() ? iterator.next() : nextOffset;
+        }
+
+        // Every pending record failed, none is still being processed
+        private boolean settled() {
+            return failed.containsAll(pending);
+        }
+    }
+
+    private final Map<TopicPartition, PartitionState> partitions = new ConcurrentHashMap<>();
+
+    public void register(TopicPartition partition, long offset) {
+        PartitionState state = partitions.computeIfAbsent(partition, p -> new PartitionState());
+        state.pending.add(offset);
+        state.nextOffset = offset + 1;
+    }
+
+    public void complete(TopicPartition partition, long offset) {
+        PartitionState state = partitions.get(partition);
+        if (state != null) state.pending.remove(offset);
+    }
+
+    // The record has to be consumed again, false if it was no longer pending
+    public boolean fail(TopicPartition partition, long offset) {
+        PartitionState state = partitions.get(partition);
+        if (state == null || !state.pending.contains(offset)) return false;
+        state.failed.add(offset);
+        return true;
+    }
+
+    public Set<TopicPartition> failedPartitions() {
+        Set<TopicPartition> failedPartitions = new HashSet<>();
+        partitions.forEach((partition, state) -> {
+            if (!state.failed.isEmpty()) failedPartitions.add(partition);
+        });
+        return failedPartitions;
+    }
+
+    // Forgets the failed records of the partition and returns the offset to consume it from again, or -1 while
+    // some of its records are still being processed
+    public long rewind(TopicPartition partition) {
+        PartitionState state = partitions.get(partition);
+        if (state == null || state.failed.isEmpty() || !state.settled()) return -1;
+        long offset = state.failed.first();
+        state.pending.clear();
+        state.failed.clear();
+        state.nextOffset = offset;
+        return offset;
+    }
+
+    // Partitions whose committable offset moved since the last call
+    public Map<TopicPartition, OffsetAndMetadata> takeCommittable() {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        partitions.forEach((partition, state) -> {
+            long committable = state.committable();
+            if (committable > state.lastCommitted) {
+                offsets.put(partition, new OffsetAndMetadata(committable));
+                state.lastCommitted = committable;
+            }
+        });
+        return offsets;
+    }
+
+    // Failed records count as processed here, the committed offset stops before them
+    public boolean isIdle(Collection<TopicPartition> partitionsToCheck) {
+        for (TopicPartition partition : partitionsToCheck) {
+            PartitionState state = partitions.get(partition);
+            if (state != null && !state.settled()) return false;
+        }
+        return true;
+    }
+
+    public void remove(Collection<TopicPartition> partitionsToRemove) {
+        partitionsToRemove.forEach(partitions::remove);
+    }
+}
@@ -1,107 +1,447 @@
 package org.example;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
-import org.apache.kafka.clients.producer.KafkaProducer;
-import org.apache.kafka.clients.producer.ProducerConfig;
-import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RecordDeserializationException;
+import org.apache.kafka.common.errors.WakeupException;
 import org.apache.kafka.common.serialization.StringDeserializer;
-import org.apache.kafka.common.serialization.StringSerializer;
-import org.example.model.KeyDirValue;
+import org.example.model.IngestionStats;
+import org.example.model.RejectionReason;
 import org.example.model.WeatherMessage;
 import org.example.utils.MessageValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.io.File;
+import java.io.IOException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static org.example.Constants.*;
+
+// Polls on one thread and splits each poll among workers chosen by station_id.
+// A station always maps to the same single-threaded worker, so its readings are validated and written
+// in poll order, which the timestamp check of MessageValidator relies on. Archiving only enqueues to the
+// WeatherArchiver stage, Parquet files are written on its own thread, and rejected records are handed to
+// the DeadLetterPublisher the same way.
+// The next poll waits for the BitCask writes only. Offsets are completed once the readings are in BitCask and
+// flushed to the archive's journal, so they stay uncommitted for up to about ARCHIVE_MAX_LATENCY_MS.
+// A batch that fails to be stored or archived is consumed again: its partitions are paused, and once their other
+// records are settled they are rewound to the first failed offset and resumed, at most once per
+// FAILED_BATCH_RETRY_BACKOFF_MS. Records after it that did succeed come back as duplicates.
+// Readings delivered again after a restart or rebalance are dropped by the DedupeWindow before validation.
+// Its snapshot is taken on the polling thread between polls and written once the archive has caught up.
 @Service
 public class PollingConsumer {
-    private KafkaConsumer<String, String> kafkaConsumer;
-    private KafkaProducer<String, String> kafkaProducer;
+    private record PolledMessage(TopicPartition partition, long offset, WeatherMessage message) {
+    }
+
+    // Dedupe window waiting until every reading marked in it is archived. failuresBefore is the failed batch
+    // count when it was taken: the readings of a batch failing later are unmarked, but still marked in it.
+    private record DedupeSnapshot(byte[] bytes, long failuresBefore, CompletableFuture<Void> archived) {
+    }
+
+    private KafkaConsumer<String, WeatherMessage> kafkaConsumer;
     private final BitCask bitCask;
-    private final ObjectMapper objectMapper;
+    private final ExecutorService[] workers;
     private final WeatherArchiver weatherArchiver;
+    private final DeadLetterPublisher deadLetters;
+    private final DedupeWindow dedupeWindow;
+    private final File dedupeSnapshot;
+    private final long dedupeSnapshotIntervalMs;
+    private long lastDedupeSnapshotAt;
+    private boolean dedupeDirty;
+    private DedupeSnapshot pendingSnapshot;
+    // Paused partitions with a failed batch and when they may be rewound, polling thread only
+    private final Map<TopicPartition, Long> retries = new HashMap<>();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final ExecutorService poller = Executors.newSingleThreadExecutor(r -> new Thread(r, "weather-poller"));
+    private volatile boolean running = true;
+    private final OffsetTracker offsetTracker = new OffsetTracker();
+    private final IngestionMetrics metrics = new IngestionMetrics();
     private final Logger logger = LoggerFactory.getLogger(PollingConsumer.class);
 
-    public PollingConsumer() {
+    // Shares the BitCask instance with the REST controller, the store must have a single writer
+    @Autowired
+    public PollingConsumer(BitCask bitCask, WeatherArchiver weatherArchiver, DeadLetterPublisher deadLetters) {
+        this(bitCask, weatherArchiver, deadLetters,
+                Integer.parseInt(System.getenv().getOrDefault(
+                        "CONSUMER_WORKERS", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                new File(new File(System.getenv().getOrDefault("BITCASK_DIR", DEFAULT_BIT_CASK_DIR), HINTS_DIR),
+                        DEDUPE_SNAPSHOT_NAME + DEDUPE_SNAPSHOT_EXTENSION),
+                Integer.parseInt(System.getenv().getOrDefault(
+                        "DEDUPE_WINDOW", String.valueOf(DEFAULT_DEDUPE_WINDOW))),
+                Long.parseLong(System.getenv().getOrDefault(
+                        "DEDUPE_SNAPSHOT_INTERVAL_MS", String.valueOf(DEFAULT_DEDUPE_SNAPSHOT_INTERVAL_MS))));
+    }
+
+    public PollingConsumer(BitCask bitCask, WeatherArchiver weatherArchiver, DeadLetterPublisher deadLetters,
+                           int workerCount, File dedupeSnapshot, int dedupeWindowBits, long dedupeSnapshotIntervalMs) {
+        if (workerCount < 1) throw new IllegalArgumentException("CONSUMER_WORKERS must be positive: " + workerCount);
         initConsumer();
-        initProducerForInvalidMessages();
-        this.bitCask = new BitCaskImp();
-        this.objectMapper = new ObjectMapper();
-        this.weatherArchiver = new WeatherArchiver();
+        this.bitCask = bitCask;
+        this.weatherArchiver = weatherArchiver;
+        this.deadLetters = deadLetters;
+        this.dedupeWindow = new DedupeWindow(dedupeWindowBits);
+        this.dedupeSnapshot = dedupeSnapshot;
+        this.dedupeSnapshotIntervalMs = dedupeSnapshotIntervalMs;
+        this.dedupeWindow.load(dedupeSnapshot);
+        this.lastDedupeSnapshotAt = System.currentTimeMillis();
+        this.workers = new ExecutorService[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            this.workers[i] = Executors.newSingleThreadExecutor();
+        }
     }
 
     private void initConsumer() {
-        final String topicName = "Weather-Metrics";
+        final String topicName = WEATHER_METRICS_TOPIC;
         final String groupId = "bitcask-group";
         Properties props = new Properties();
 
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "kafka:9092");
         props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, WeatherMessageDeserializer.class.getName());
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        // Offsets are committed only after the polled messages are durable in BitCask and archived
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
 
         this.kafkaConsumer = new KafkaConsumer<>(props);
-        this.kafkaConsumer.subscribe(Collections.singletonList(topicName));
-    }
-
-    private void initProducerForInvalidMessages() {
-        Properties props = new Properties();
-        props.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "kafka:9092");
-        props.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        props.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        props.setProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, "gzip");
+        this.kafkaConsumer.subscribe(Collections.singletonList(topicName), new ConsumerRebalanceListener() {
+            @Override
+            public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                drain(partitions);
+            }
 
-        this.kafkaProducer = new KafkaProducer<>(props);
+            @Override
+            public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            }
+        });
     }
 
     @PostConstruct
     public void start() {
-        Executors.newSingleThreadExecutor().submit(() -> {
+        poller.submit(() -> {
             try {
-                while (true) {
+                while (running) {
                     // As each weather station should output a status message every 1 second
-                    ConsumerRecords<String, String> records = kafkaConsumer.poll(Duration.ofSeconds(1));
-                    records.forEach(record -> processMessage(record.value()));
+                    ConsumerRecords<String, WeatherMessage> records;
+                    try {
+                        records = kafkaConsumer.poll(Duration.ofSeconds(1));
+                    } catch (RecordDeserializationException e) {
+                        // The records before the malformed one were returned by the previous poll
+                        skipMalformed(e);
+                        continue;
+                    }
+                    if (!records.isEmpty()) processBatch(records);
+                    retryFailedBatches();
+                    commitProcessed();
+                    saveDedupeWindow(false);
                 }
+            } catch (WakeupException e) {
+                // close() was called
             } catch (Exception e) {
                 logger.error("Error when polling a message", e);
             }
+            try {
+                // Revokes the partitions, which commits and saves the dedupe window through drain()
+                kafkaConsumer.close();
+            } catch (RuntimeException e) {
+                logger.error("Failed to close the consumer", e);
+            }
+            saveDedupeWindow(true);
         });
     }
 
-    private void processMessage(String message) {
-        final String invalidMessagesTopic = "Invalid-Message";
+    // Lets the current batch finish and hands the partitions back to the group
+    @PreDestroy
+    public void close() {
+        running = false;
+        kafkaConsumer.wakeup();
+        poller.shutdown();
+        try {
+            if (!poller.awaitTermination(REBALANCE_DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                logger.warn("Polling thread did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+    }
+
+    // Sends the raw payload to the dead-letter topic and moves past it, the offset counts as processed
+    private void skipMalformed(RecordDeserializationException e) {
+        // Counted by the dead-letter stage, a flood of bad records must not flood the log as well
+        logger.debug("Error when process a message at {}@{}: {}", e.topicPartition(), e.offset(), e.getMessage());
+        Throwable cause = e.getCause() == null ? e : e.getCause();
+        byte[] payload = cause instanceof MalformedWeatherMessageException malformed ? malformed.getPayload() : null;
+        deadLetters.rejectMalformed(e.topicPartition(), e.offset(), payload, cause.getMessage());
+        metrics.rejected();
+        offsetTracker.register(e.topicPartition(), e.offset());
+        offsetTracker.complete(e.topicPartition(), e.offset());
+        kafkaConsumer.seek(e.topicPartition(), e.offset() + 1);
+    }
+
+    // One poll at a time, already decoded by WeatherMessageDeserializer: validate, write and archive each
+    // worker's share on that worker, then wait until the whole batch is in BitCask before the next poll
+    private void processBatch(ConsumerRecords<String, WeatherMessage> records) {
+        metrics.batch(records.count());
+        dedupeDirty = true;
+        long dispatchStart = System.nanoTime();
+        List<List<PolledMessage>> shares = new ArrayList<>(workers.length);
+        for (int i = 0; i < workers.length; i++) shares.add(new ArrayList<>());
+        for (ConsumerRecord<String, WeatherMessage> record : records) {
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            offsetTracker.register(partition, record.offset());
+            WeatherMessage weatherMessage = record.value();
+            if (weatherMessage == null) {
+                // Empty payload, nothing to store
+                deadLetters.reject(partition, record.offset(), null, RejectionReason.EMPTY);
+                metrics.rejected();
+                offsetTracker.complete(partition, record.offset());
+                continue;
+            }
+            // Stations send no key (only the simulator does), the station is only known after parsing
+            shares.get(workerOf(weatherMessage.station_id()))
+                    .add(new PolledMessage(partition, record.offset(), weatherMessage));
+        }
+        metrics.dispatch.record(dispatchStart);
+
+        List<CompletableFuture<Void>> writes = new ArrayList<>(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            List<PolledMessage> share = shares.get(i);
+            if (share.isEmpty()) continue;
+            int worker = i;
+            writes.add(CompletableFuture.supplyAsync(() -> processShare(share), workers[worker])
+                    .thenCompose(write -> write)
+                    .exceptionally(e -> null)); // handled by processShare, the batch is retried by retryFailedBatches
+        }
+        CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).join();
+        logger.debug("Processed a batch of {} records", records.count());
+    }
+
+    // Runs on the share's worker, completes once the accepted messages are durable in BitCask. Their offsets are
+    // completed later, once they are archived as well.
+    private CompletableFuture<Void> processShare(List<PolledMessage> share) {
+        long validateStart = System.nanoTime();
+        List<WeatherMessage> accepted = new ArrayList<>(share.size());
+        List<PolledMessage> acceptedRecords = new ArrayList<>(share.size());
+        // Readings of one station in this batch are checked against each other, not only against the store
+        Map<Long, Long> latestTimestamps = new HashMap<>();
+        // Marked in the dedupe window but neither accepted nor rejected yet
+        PolledMessage validating = null;
+        try {
+            for (PolledMessage polled : share) {
+                if (isDuplicate(polled.message())) {
+                    metrics.duplicate();
+                    offsetTracker.complete(polled.partition(), polled.offset());
+                    continue;
+                }
+                validating = polled;
+                if (isValid(polled, latestTimestamps)) {
+                    accepted.add(polled.message());
+                    acceptedRecords.add(polled);
+                    latestTimestamps.put(polled.message().station_id(), polled.message().status_timestamp());
+                } else {
+                    metrics.rejected();
+                    offsetTracker.complete(polled.partition(), polled.offset());
+                }
+                validating = null;
+            }
+            metrics.validate.record(validateStart);
+            if (accepted.isEmpty()) return CompletableFuture.completedFuture(null);
+
+            long putStart = System.nanoTime();
+            CompletableFuture<Void> stored = this.bitCask.putAll(accepted)
+                    .whenComplete((ignored, error) -> metrics.put.record(putStart));
+            long archiveStart = System.nanoTime();
+            CompletableFuture<Void> archived = this.weatherArchiver.receiveStatuses(accepted);
+            metrics.archive.record(archiveStart);
+            CompletableFuture.allOf(stored, archived).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    retryBatch(acceptedRecords, acceptedRecords, error);
+                    return;
+                }
+                for (PolledMessage polled : acceptedRecords) {
+                    offsetTracker.complete(polled.partition(), polled.offset());
+                }
+            });
+            return stored;
+        } catch (RuntimeException e) {
+            // Thrown on the worker itself, the records of the share not completed yet are consumed again
+            if (validating != null) acceptedRecords.add(validating);
+            retryBatch(share, acceptedRecords, e);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    // Hands the still pending records to retryFailedBatches. The marked readings are unmarked first, they must not
+    // look like duplicates when they are delivered again.
+    private void retryBatch(List<PolledMessage> records, List<PolledMessage> marked, Throwable error) {
+        logger.error("Failed to store or archive a batch of {} messages, consuming it again", records.size(), error);
+        for (PolledMessage polled : marked) {
+            dedupeWindow.unmark(polled.message().station_id(), polled.message().s_no());
+        }
+        for (PolledMessage polled : records) {
+            offsetTracker.fail(polled.partition(), polled.offset());
+        }
+        failedBatches.incrementAndGet();
+    }
+
+    // Marks the reading as seen, without a station or sequence number it cannot be told apart from another
+    private boolean isDuplicate(WeatherMessage weatherMessage) {
+        if (weatherMessage.station_id() == null || weatherMessage.s_no() == null) return false;
+        long timestamp = weatherMessage.status_timestamp() == null ? Long.MIN_VALUE : weatherMessage.status_timestamp();
+        return !dedupeWindow.markIfNew(weatherMessage.station_id(), weatherMessage.s_no(), timestamp);
+    }
+
+    private boolean isValid(PolledMessage polled, Map<Long, Long> latestTimestamps) {
+        WeatherMessage weatherMessage = polled.message();
+        // Check if message is valid
+        //  1. Discard delayed messages
+        //  2. BatteryStatus should be a String of (low, medium, high)
+        //  3. StationId and SNo should be Long
+        //  4. Humidity between 0:100
+        Long stationId = weatherMessage.station_id();
+        Long lastTimeStamp = stationId == null ? null
+                : latestTimestamps.containsKey(stationId) ? latestTimestamps.get(stationId)
+                : this.bitCask.getLatestTimestamp(stationId);
+        Long lastAddedTimestamp = lastTimeStamp == null ? weatherMessage.status_timestamp() : lastTimeStamp;
+        RejectionReason reason = MessageValidator.validate(weatherMessage, lastAddedTimestamp);
+        if (reason != null) {
+            deadLetters.reject(polled.partition(), polled.offset(), weatherMessage, reason);
+            logger.debug("Invalid WeatherMessage received ({}): {}", reason, weatherMessage);
+            return false;
+        }
+        logger.debug("Polled WeatherMessage: {}", weatherMessage);
+        return true;
+    }
+
+    public IngestionStats getStats() {
+        return metrics.snapshot();
+    }
+
+    // A missing station_id is rejected by the validator, any worker can do that
+    private int workerOf(Long stationId) {
+        return stationId == null ? 0 : Math.floorMod(Long.hashCode(stationId), workers.length);
+    }
+
+    // On the polling thread: pauses the partitions of failed batches, then rewinds each once the backoff has
+    // passed and its other records are settled, so a failure cannot hold back its commits for good
+    private void retryFailedBatches() {
+        long now = System.currentTimeMillis();
+        for (TopicPartition partition : offsetTracker.failedPartitions()) {
+            if (retries.putIfAbsent(partition, now + FAILED_BATCH_RETRY_BACKOFF_MS) == null) {
+                kafkaConsumer.pause(List.of(partition));
+            }
+        }
+        Iterator<Map.Entry<TopicPartition, Long>> iterator = retries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<TopicPartition, Long> retry = iterator.next();
+            if (now < retry.getValue()) continue;
+            long offset = offsetTracker.rewind(retry.getKey());
+            if (offset < 0) continue;
+            logger.info("Consuming {} again from offset {}", retry.getKey(), offset);
+            kafkaConsumer.seek(retry.getKey(), offset);
+            kafkaConsumer.resume(List.of(retry.getKey()));
+            iterator.remove();
+        }
+    }
+
+    private void commitProcessed() {
+        Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.takeCommittable();
+        if (offsets.isEmpty()) return;
+        long commitStart = System.nanoTime();
+        kafkaConsumer.commitSync(offsets);
+        metrics.commit.record(commitStart);
+    }
+
+    // Runs on the polling thread, give the workers a bounded time to finish the revoked partitions
+    // so the next owner does not consume them again
+    private void drain(Collection<TopicPartition> partitions) {
+        long deadline = System.currentTimeMillis() + REBALANCE_DRAIN_TIMEOUT_MS;
+        // Their archived readings would otherwise wait up to ARCHIVE_MAX_LATENCY_MS for the next flush
+        weatherArchiver.flush();
         try {
-            WeatherMessage weatherMessage = this.objectMapper.readValue(message, WeatherMessage.class);
-            // Check if message is valid
-            //  1. Discard delayed messages
-            //  2. BatteryStatus should be a String of (low, medium, high)
-            //  3. StationId and SNo should be Long
-            //  4. Humidity between 0:100
-            KeyDirValue keyDirValue = this.bitCask.getKeyDirMap().get(weatherMessage.station_id());
-            Long lastAddedTimestamp = keyDirValue == null ? weatherMessage.status_timestamp() : keyDirValue.timeStamp();
-            if (!MessageValidator.isValid(weatherMessage, lastAddedTimestamp)) {
-                ProducerRecord<String, String> record = new ProducerRecord<>(invalidMessagesTopic, message);
-                this.kafkaProducer.send(record);
-                logger.debug("Invalid WeatherMessage received: {}", weatherMessage);
-                return;
+            while (!offsetTracker.isIdle(partitions) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!offsetTracker.isIdle(partitions)) {
+            logger.warn("Revoked partitions {} still have unprocessed records", partitions);
+        }
+        commitProcessed();
+        saveDedupeWindow(true);
+        offsetTracker.remove(partitions);
+        // The next owner consumes the failed records again from the committed offset
+        partitions.forEach(retries::remove);
+    }
+
+    // On the polling thread only, the previous batch is in BitCask or failed by then. A forced snapshot flushes
+    // the archive and waits for it, so it covers everything polled so far.
+    private void saveDedupeWindow(boolean force) {
+        long now = System.currentTimeMillis();
+        if (dedupeDirty && (force || (pendingSnapshot == null && now - lastDedupeSnapshotAt >= dedupeSnapshotIntervalMs))) {
+            try {
+                long failuresBefore = failedBatches.get();
+                pendingSnapshot = new DedupeSnapshot(dedupeWindow.snapshot(), failuresBefore,
+                        force ? weatherArchiver.flush() : weatherArchiver.archived());
+                dedupeDirty = false;
+            } catch (IOException e) {
+                logger.error("Failed to take a snapshot of the dedupe window", e);
             }
-            logger.debug("Polled WeatherMessage: {}", weatherMessage);
-            this.bitCask.put(weatherMessage);
-            this.weatherArchiver.receiveStatus(weatherMessage);
-        } catch (JsonProcessingException e) {
-            logger.error("Error when process a message: {}", e.getMessage());
+            lastDedupeSnapshotAt = now;
+        }
+        if (pendingSnapshot == null) return;
+        if (force) {
+            try {
+                pendingSnapshot.archived().get(REBALANCE_DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                // Checked below
+            }
+        }
+        if (!pendingSnapshot.archived().isDone()) return;
+        DedupeSnapshot snapshot = pendingSnapshot;
+        pendingSnapshot = null;
+        if (snapshot.archived().isCompletedExceptionally() || failedBatches.get() != snapshot.failuresBefore()) {
+            // Taken again from the window without the failed readings
+            dedupeDirty = true;
+            return;
+        }
+        try {
+            dedupeWindow.save(dedupeSnapshot, snapshot.bytes());
+        } catch (IOException e) {
+            logger.error("Failed to save the dedupe window to {}", dedupeSnapshot, e);
+            dedupeDirty = true;
         }
     }
 }
@@ -0,0 +1,115 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A read handle on one segment file, shared by all readers.
+// The active segment is read through positional FileChannel reads (no seek state),
+// a sealed (immutable) segment is served from a read-only memory mapping.
+public class Segment {
+
+    private static final Logger logger = LoggerFactory.getLogger(Segment.class);
+
+    private final int id;
+    private final File file;
+    private final FileChannel channel;
+    private volatile MappedByteBuffer mappedBuffer;
+    // Set once the segment gets no more appends and its live bytes are all counted
+    private volatile boolean sealed;
+    // One reference is owned by the SegmentManager, one more is taken by every in-flight read
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    // Bytes of records the KeyDir still points to, the rest of the file is garbage
+    private final AtomicLong liveBytes = new AtomicLong();
+
+    Segment(int id, File file) throws IOException {
+        this.id = id;
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getLiveBytes() {
+        return liveBytes.get();
+    }
+
+    void addLiveBytes(long delta) {
+        liveBytes.addAndGet(delta);
+    }
+
+    // Map the segment once it will not be appended to anymore
+    void seal() throws IOException {
+        long size = channel.size();
+        // Keep positional reads for empty or huge files
+        if (size > 0 && size <= Integer.MAX_VALUE) {
+            this.mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        this.sealed = true;
+    }
+
+    // Current length of the file, the active segment keeps growing
+    long size() throws IOException {
+        MappedByteBuffer mapped = this.mappedBuffer;
+        return mapped != null ? mapped.capacity() : channel.size();
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    // Fails only when the segment was already retired and its channel closed
+    boolean tryAcquire() {
+        int count;
+        do {
+            count = refCount.get();
+            if (count <= 0) return false;
+        } while (!refCount.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    void release() {
+        if (refCount.decrementAndGet() == 0) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close segment {}", file.getName(), e);
+            }
+        }
+    }
+
+    // Caller must hold a reference (see tryAcquire)
+    byte[] read(long position, int size) throws IOException {
+        byte[] value = new byte[size];
+        MappedByteBuffer mapped = this.mappedBuffer;
+        if (mapped != null) {
+            // Absolute bulk get does not touch the buffer position, so the mapping is safely shared
+            mapped.get((int) position, value);
+            return value;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of segment " + file.getName() + " at " + position);
+            }
+        }
+        return value;
+    }
+}
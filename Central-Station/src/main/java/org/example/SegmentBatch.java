@@ -0,0 +1,67 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Value positions collected from KeyDir lookups, grouped by segment so each segment can be read
+// front to back with a SegmentRangeReader. Holds a reference on every segment until closed.
+// Segments are acquired before the lookups, a lookup that points to a segment registered in between
+// makes add() return false and the caller starts over with a new batch.
+public class SegmentBatch implements AutoCloseable {
+
+    private static final int INITIAL_POSITIONS = 16;
+
+    private final Segment[] segments;
+    private final int[] segmentIds;
+    private final long[][] positions;
+    private final int[] counts;
+    private boolean closed;
+
+    private SegmentBatch(List<Segment> segments) {
+        this.segments = segments.toArray(new Segment[0]);
+        this.segmentIds = new int[this.segments.length];
+        for (int i = 0; i < this.segments.length; i++) {
+            segmentIds[i] = this.segments[i].getId();
+        }
+        this.positions = new long[this.segments.length][];
+        this.counts = new int[this.segments.length];
+    }
+
+    public static SegmentBatch acquire(SegmentManager segmentManager) {
+        return new SegmentBatch(segmentManager.acquireAll());
+    }
+
+    // Returns false if the segment was registered after the batch was acquired
+    public boolean add(int segmentId, long valuePosition) {
+        int index = Arrays.binarySearch(segmentIds, segmentId); // segments come in id order
+        if (index < 0) return false;
+        if (positions[index] == null) {
+            positions[index] = new long[INITIAL_POSITIONS];
+        } else if (counts[index] == positions[index].length) {
+            positions[index] = Arrays.copyOf(positions[index], counts[index] * 2);
+        }
+        positions[index][counts[index]++] = valuePosition;
+        return true;
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    public int getSegmentId(int index) {
+        return segmentIds[index];
+    }
+
+    public SegmentRangeReader reader(int index) {
+        return new SegmentRangeReader(segments[index], positions[index] == null ? new long[0] : positions[index], counts[index]);
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        for (Segment segment : segments) {
+            segment.release();
+        }
+    }
+}
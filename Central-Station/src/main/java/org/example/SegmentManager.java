@@ -0,0 +1,174 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.example.Constants.BIT_CASK_EXTENSION;
+import static org.example.Constants.HINT_FILE_EXTENSION;
+
+// Keeps one shared read handle per segment file so lookups never open or close files.
+// Segments are registered when created (active file, recovery, compaction) and retired
+// by the Compactor before it deletes them.
+// Every segment gets a small int id (assigned in registration order) that the KeyDir stores
+// instead of a File reference.
+public class SegmentManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentManager.class);
+
+    private final File segmentsDir;
+    private final File hintsDir;
+
+    // Copy-on-write: registrations are rare, lookups happen on every read and take no lock
+    private volatile SegmentTable segmentTable = new SegmentTable(new int[0], new Segment[0]);
+    private int nextSegmentId = 0;
+
+    private record SegmentTable(int[] ids, Segment[] segments) {
+        Segment find(int id) {
+            int index = Arrays.binarySearch(ids, id); // ids are assigned in increasing order
+            return index < 0 ? null : segments[index];
+        }
+    }
+
+    public SegmentManager(File segmentsDir, File hintsDir) {
+        this.segmentsDir = segmentsDir;
+        this.hintsDir = hintsDir;
+    }
+
+    public File getHintsDir() {
+        return hintsDir;
+    }
+
+    public File segmentFile(String baseFileName) {
+        return new File(segmentsDir, baseFileName + BIT_CASK_EXTENSION);
+    }
+
+    public File hintFile(String baseFileName) {
+        return new File(hintsDir, baseFileName + HINT_FILE_EXTENSION);
+    }
+
+    // Creates an empty segment file named after the first free base name from notBefore on and returns that name.
+    // The writer rolling over and the Compactor both pick names here, and the file is created atomically,
+    // so two of them can never end up appending to the same file.
+    public synchronized String createSegmentFile(long notBefore) throws IOException {
+        for (long baseFileName = notBefore; ; baseFileName++) {
+            try {
+                Files.createFile(segmentFile(String.valueOf(baseFileName)).toPath());
+                return String.valueOf(baseFileName);
+            } catch (FileAlreadyExistsException e) {
+                // Taken by an earlier segment, try the next name
+            }
+        }
+    }
+
+    // Returns the id of the segment, registering it if needed
+    public synchronized int open(File file) throws IOException {
+        int existingId = idOf(file);
+        if (existingId >= 0) return existingId;
+
+        int id = nextSegmentId++;
+        Segment segment = new Segment(id, file);
+        SegmentTable current = this.segmentTable;
+        int count = current.ids().length;
+        int[] ids = Arrays.copyOf(current.ids(), count + 1);
+        Segment[] segments = Arrays.copyOf(current.segments(), count + 1);
+        ids[count] = id;
+        segments[count] = segment;
+        this.segmentTable = new SegmentTable(ids, segments);
+        return id;
+    }
+
+    // Segment will not receive more appends, serve it from a memory mapping
+    public void seal(int segmentId) throws IOException {
+        Segment segment = segmentTable.find(segmentId);
+        if (segment != null && !segment.isSealed()) {
+            segment.seal();
+            logger.debug("Sealed segment {}", segment.getFile().getName());
+        }
+    }
+
+    // Returns null if the segment was retired (e.g. merged by the Compactor) in between,
+    // the caller should look up the key directory again.
+    public byte[] read(int segmentId, long position, int size) throws IOException {
+        Segment segment = segmentTable.find(segmentId);
+        if (segment == null || !segment.tryAcquire()) return null;
+        try {
+            return segment.read(position, size);
+        } finally {
+            segment.release();
+        }
+    }
+
+    // The channel is closed once the last in-flight read releases it
+    public synchronized void retire(int segmentId) {
+        SegmentTable current = this.segmentTable;
+        int index = Arrays.binarySearch(current.ids(), segmentId);
+        if (index < 0) return;
+
+        Segment segment = current.segments()[index];
+        int count = current.ids().length;
+        int[] ids = new int[count - 1];
+        Segment[] segments = new Segment[count - 1];
+        System.arraycopy(current.ids(), 0, ids, 0, index);
+        System.arraycopy(current.ids(), index + 1, ids, index, count - index - 1);
+        System.arraycopy(current.segments(), 0, segments, 0, index);
+        System.arraycopy(current.segments(), index + 1, segments, index, count - index - 1);
+        this.segmentTable = new SegmentTable(ids, segments);
+
+        segment.release();
+        logger.debug("Retired segment {}", segment.getFile().getName());
+    }
+
+    // Takes a read reference on every registered segment: they stay readable, even if the Compactor retires and
+    // deletes them meanwhile, until the caller releases them. KeyDir entries read afterwards may point to a segment
+    // registered since, see SegmentBatch.add.
+    public List<Segment> acquireAll() {
+        List<Segment> acquired = new ArrayList<>();
+        for (Segment segment : segmentTable.segments()) {
+            if (segment.tryAcquire()) acquired.add(segment);
+        }
+        return acquired;
+    }
+
+    // Releases every segment, reads still in flight finish first
+    public synchronized void close() {
+        for (Segment segment : segmentTable.segments()) {
+            segment.release();
+        }
+        this.segmentTable = new SegmentTable(new int[0], new Segment[0]);
+    }
+
+    // Called by the writer, recovery and the Compactor whenever a record becomes live or dead
+    public void addLiveBytes(int segmentId, long delta) {
+        Segment segment = segmentTable.find(segmentId);
+        if (segment != null) segment.addLiveBytes(delta);
+    }
+
+    public List<Segment> getSegments() {
+        return List.of(segmentTable.segments());
+    }
+
+    public int getSegmentCount() {
+        return segmentTable.ids().length;
+    }
+
+    // Returns -1 if the file is not registered
+    public int idOf(File file) {
+        for (Segment segment : segmentTable.segments()) {
+            if (segment.getFile().equals(file)) return segment.getId();
+        }
+        return -1;
+    }
+
+    public File fileOf(int segmentId) {
+        Segment segment = segmentTable.find(segmentId);
+        return segment == null ? null : segment.getFile();
+    }
+}
@@ -0,0 +1,70 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.example.Constants.NUM_BYTES_VALUE_WRITE_START_AFTER;
+
+// Reads a set of records from one segment front to back: the value positions are sorted and every
+// read pulls in a whole range of the file, so neighbouring records cost one read instead of one each.
+// Record layout: [message_timestamp][key][value_size][value], key and size come from the record itself.
+// The caller must hold a reference on the segment (see Segment.tryAcquire).
+public class SegmentRangeReader {
+
+    private static final int MAX_RANGE_BYTES = 1024 * 1024;
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(long key, long valuePosition, long timeStamp, byte[] value);
+    }
+
+    private final Segment segment;
+    private final long[] valuePositions;
+    private final int count;
+    private int next;
+
+    // Sorts valuePositions[0, count) in place
+    public SegmentRangeReader(Segment segment, long[] valuePositions, int count) {
+        this.segment = segment;
+        this.valuePositions = valuePositions;
+        this.count = count;
+        Arrays.sort(valuePositions, 0, count);
+    }
+
+    public boolean hasNext() {
+        return next < count;
+    }
+
+    // Reads the next range and passes every requested record in it to the consumer
+    public void readNext(RecordConsumer consumer) throws IOException {
+        if (next >= count) return;
+        long start = valuePositions[next] - NUM_BYTES_VALUE_WRITE_START_AFTER;
+        int length = (int) Math.min(MAX_RANGE_BYTES, segment.size() - start);
+        byte[] range = segment.read(start, length);
+        ByteBuffer buffer = ByteBuffer.wrap(range);
+
+        int decoded = 0;
+        while (next < count) {
+            int offset = (int) (valuePositions[next] - NUM_BYTES_VALUE_WRITE_START_AFTER - start);
+            if (offset + NUM_BYTES_VALUE_WRITE_START_AFTER > length) break;
+            long timeStamp = buffer.getLong(offset);
+            long key = buffer.getLong(offset + Long.BYTES);
+            int valueSize = buffer.getInt(offset + 2 * Long.BYTES);
+            int valueOffset = offset + NUM_BYTES_VALUE_WRITE_START_AFTER;
+
+            byte[] value;
+            if (valueOffset + valueSize <= length) {
+                value = Arrays.copyOfRange(range, valueOffset, valueOffset + valueSize);
+            } else if (decoded == 0) {
+                // A single value larger than a range
+                value = segment.read(valuePositions[next], valueSize);
+            } else {
+                break; // starts the next range
+            }
+            consumer.accept(key, valuePositions[next], timeStamp, value);
+            next++;
+            decoded++;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package org.example;
+
+import org.example.model.KeyDirValue;
+import org.example.model.WeatherMessage;
+import org.example.model.WeatherMessageCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.example.Constants.*;
+
+// Single writer of the active segment and its hint file.
+// Puts are queued and group-committed: every batch drained from the queue is encoded into one buffer
+// for the data file and one for the hint file, written with one write each, then made durable
+// according to the DurabilityPolicy before the callers' futures complete.
+public class SegmentWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentWriter.class);
+    private static final long IDLE_POLL_MS = 100;
+
+    private static final int DATA_RECORD_SIZE = NUM_BYTES_VALUE_WRITE_START_AFTER + WeatherMessageCodec.ENCODED_SIZE;
+    private static final int HINT_RECORD_SIZE = 3 * Long.BYTES + Integer.BYTES;
+
+    private record PendingWrite(WeatherMessage message, CompletableFuture<Void> future) {
+    }
+
+    private final KeyDir keyDir;
+    private final SegmentManager segmentManager;
+    private final DurabilityPolicy durabilityPolicy;
+    private final long fsyncIntervalMs;
+    private final BlockingQueue<PendingWrite> queue = new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "bitcask-writer"));
+    // Written but not yet fsynced, only used by the INTERVAL policy
+    private final List<CompletableFuture<Void>> awaitingSync = new ArrayList<>();
+    private volatile boolean running = true;
+
+    // Owned by the writer thread once started, a batch is encoded straight into the reused buffers
+    private final ByteBuffer dataBuffer = ByteBuffer.allocateDirect(MAX_WRITE_BATCH_SIZE * DATA_RECORD_SIZE);
+    private final ByteBuffer hintBuffer = ByteBuffer.allocateDirect(MAX_WRITE_BATCH_SIZE * HINT_RECORD_SIZE);
+    private final boolean[] written = new boolean[MAX_WRITE_BATCH_SIZE];
+    private final long[] valuePositions = new long[MAX_WRITE_BATCH_SIZE];
+    private FileChannel dataChannel;
+    private FileChannel hintChannel;
+    private long dataPosition;
+    // A failed write could not be undone, the next batch starts a new segment
+    private boolean rollRequested;
+    private long lastBaseFileName;
+    private long lastSyncTime;
+    private volatile int activeSegmentId;
+
+    public SegmentWriter(KeyDir keyDir, SegmentManager segmentManager, DurabilityPolicy durabilityPolicy, long fsyncIntervalMs) {
+        this.keyDir = keyDir;
+        this.segmentManager = segmentManager;
+        this.durabilityPolicy = durabilityPolicy;
+        this.fsyncIntervalMs = fsyncIntervalMs;
+    }
+
+    // Opens (or reopens for appending) the active segment, must be called before start()
+    public void open(String baseFileName) throws IOException {
+        File dataFile = segmentManager.segmentFile(baseFileName);
+        File hintFile = segmentManager.hintFile(baseFileName);
+        this.dataChannel = FileChannel.open(dataFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.hintChannel = FileChannel.open(hintFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.dataPosition = dataChannel.size();
+        dataChannel.position(dataPosition);
+        hintChannel.position(hintChannel.size());
+        this.lastBaseFileName = Long.parseLong(baseFileName);
+        this.activeSegmentId = segmentManager.open(dataFile);
+        logger.info("Created two files {} {}", dataFile.getName(), hintFile.getName());
+    }
+
+    public void start() {
+        this.lastSyncTime = System.currentTimeMillis();
+        executor.submit(this::run);
+    }
+
+    public int getActiveSegmentId() {
+        return activeSegmentId;
+    }
+
+    // Blocks while the queue is full, so a slow disk pushes back on the producer
+    public CompletableFuture<Void> append(WeatherMessage message) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new IllegalStateException("BitCask writer is closed"));
+            return future;
+        }
+        try {
+            queue.put(new PendingWrite(message, future));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // Queued back to back, so the writer thread usually takes them in one or a few group commits
+    public CompletableFuture<Void> appendAll(List<WeatherMessage> messages) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[messages.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = append(messages.get(i));
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    // Writes out whatever is queued, syncs and closes the active files
+    public void close() {
+        running = false;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("BitCask writer did not drain its queue in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(MAX_WRITE_BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(pollTimeoutMs(), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_WRITE_BATCH_SIZE - 1);
+                    writeBatch(batch);
+                }
+                if (!awaitingSync.isEmpty() && System.currentTimeMillis() - lastSyncTime >= fsyncIntervalMs) {
+                    sync();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to write a batch of {} entries", batch.size(), e);
+                batch.forEach(pendingWrite -> pendingWrite.future().completeExceptionally(e));
+                awaitingSync.forEach(future -> future.completeExceptionally(e));
+                awaitingSync.clear();
+            } finally {
+                batch.clear();
+            }
+        }
+
+        try {
+            sync();
+            dataChannel.close();
+            hintChannel.close();
+        } catch (IOException e) {
+            logger.error("Failed to close the active segment", e);
+        }
+    }
+
+    private long pollTimeoutMs() {
+        if (awaitingSync.isEmpty()) return IDLE_POLL_MS;
+        return Math.max(0, lastSyncTime + fsyncIntervalMs - System.currentTimeMillis());
+    }
+
+    private void writeBatch(List<PendingWrite> batch) throws IOException {
+        rollIfNeeded();
+
+        // Record: [message_timestamp][key][value_size][value], hint: [key][valuePosition][valueSize][timeStamp]
+        int count = batch.size();
+        dataBuffer.clear();
+        hintBuffer.clear();
+        for (int i = 0; i < count; i++) {
+            WeatherMessage message = batch.get(i).message();
+            int recordStart = dataBuffer.position();
+            try {
+                dataBuffer.putLong(message.status_timestamp())
+                        .putLong(message.station_id())
+                        .putInt(WeatherMessageCodec.ENCODED_SIZE);
+                WeatherMessageCodec.encode(message, dataBuffer);
+            } catch (RuntimeException e) {
+                // Only this put fails, the rest of the batch is written
+                dataBuffer.position(recordStart);
+                batch.get(i).future().completeExceptionally(e);
+                written[i] = false;
+                continue;
+            }
+            written[i] = true;
+            valuePositions[i] = dataPosition + recordStart + NUM_BYTES_VALUE_WRITE_START_AFTER;
+            hintBuffer.putLong(message.station_id())
+                    .putLong(valuePositions[i])
+                    .putInt(WeatherMessageCodec.ENCODED_SIZE)
+                    .putLong(message.status_timestamp());
+        }
+
+        // Data first, so a hint entry never points past the end of its segment
+        dataBuffer.flip();
+        hintBuffer.flip();
+        int dataBytes = dataBuffer.remaining();
+        long hintPosition = hintChannel.position();
+        try {
+            writeFully(dataChannel, dataBuffer);
+            writeFully(hintChannel, hintBuffer);
+        } catch (IOException e) {
+            discardPartialWrite(hintPosition);
+            throw e;
+        }
+        dataPosition += dataBytes;
+
+        if (durabilityPolicy == DurabilityPolicy.BATCH) {
+            force();
+        }
+
+        int segmentId = activeSegmentId;
+        for (int i = 0; i < count; i++) {
+            if (!written[i]) continue;
+            WeatherMessage message = batch.get(i).message();
+            // A batch can hold several readings of one station, keep the newest
+            if (keyDir.getTimeStamp(message.station_id()) <= message.status_timestamp()) {
+                KeyDirValue previous = keyDir.put(message.station_id(), segmentId, valuePositions[i],
+                        WeatherMessageCodec.ENCODED_SIZE, message.status_timestamp());
+                // Track garbage per segment for the Compactor
+                segmentManager.addLiveBytes(segmentId, DATA_RECORD_SIZE);
+                if (previous != null) {
+                    segmentManager.addLiveBytes(previous.fileId(), -(NUM_BYTES_VALUE_WRITE_START_AFTER + previous.valueSize()));
+                }
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (!written[i]) continue;
+            if (durabilityPolicy == DurabilityPolicy.INTERVAL) {
+                awaitingSync.add(batch.get(i).future());
+            } else {
+                batch.get(i).future().complete(null);
+            }
+        }
+    }
+
+    // Cuts both files back to where the failed batch started, so later value positions and hint entries stay
+    // aligned. If that fails too, the positions follow the channel and the next batch rolls over to a new segment,
+    // a torn hint entry is then only ever the last one of its file, which recovery ignores.
+    private void discardPartialWrite(long hintPosition) {
+        try {
+            dataChannel.truncate(dataPosition);
+            dataChannel.position(dataPosition);
+            hintChannel.truncate(hintPosition);
+            hintChannel.position(hintPosition);
+        } catch (IOException e) {
+            logger.error("Failed to discard a partial write, rolling over to a new segment", e);
+            try {
+                dataPosition = dataChannel.position();
+            } catch (IOException ignored) {
+                // The roll-over does not need it
+            }
+            rollRequested = true;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void sync() throws IOException {
+        if (durabilityPolicy != DurabilityPolicy.NONE) {
+            force();
+        }
+        lastSyncTime = System.currentTimeMillis();
+        awaitingSync.forEach(future -> future.complete(null));
+        awaitingSync.clear();
+    }
+
+    private void force() throws IOException {
+        dataChannel.force(false);
+        hintChannel.force(false);
+    }
+
+    private void rollIfNeeded() throws IOException {
+        if (dataPosition <= FILE_THRESHOLD && !rollRequested) return;
+
+        // Pending writes of the old segment become durable before it is closed
+        sync();
+        dataChannel.close();
+        hintChannel.close();
+        int sealedSegmentId = activeSegmentId;
+        // File names must keep increasing even if two segments roll within the same millisecond,
+        // and must not reuse the name of a file just written by the Compactor
+        open(segmentManager.createSegmentFile(Math.max(System.currentTimeMillis(), lastBaseFileName + 1)));
+        rollRequested = false;
+        segmentManager.seal(sealedSegmentId);
+    }
+}
@@ -0,0 +1,157 @@
+package org.example;
+
+import org.example.model.WeatherMessage;
+
+import java.util.Arrays;
+
+// Statuses waiting for the archiver's next flush, one primitive array per column, grouped by station.
+// Each station's rows form a linked list (in arrival order) through nextRow, and the stations are found through
+// an open addressing table (linear probing) over their ids, so staging a status allocates nothing.
+// The buffer is reused across flushes. Owned by the archiver's flush thread, not thread-safe.
+final class StagedStatuses {
+    private static final int NO_ROW = -1;
+
+    private final int capacity;
+    private int size;
+    private final long[] stationIds;
+    private final long[] sNos;
+    private final String[] batteryStatuses;
+    private final long[] statusTimestamps;
+    private final byte[] humidities;
+    private final short[] temperatures;
+    private final short[] windSpeeds;
+    private final int[] nextRows;
+
+    // Station table, sized for at most one station per row at a load factor of 0.5
+    private final long[] slotStationIds;
+    private final int[] slotFirstRows; // NO_ROW marks an empty slot
+    private final int[] slotLastRows;
+    private final int[] stationSlots; // used slots, in the order their station first appeared
+    private int stationCount;
+    private final int mask;
+
+    // Row the write support reads next
+    private int selectedRow;
+
+    StagedStatuses(int capacity) {
+        this.capacity = capacity;
+        this.stationIds = new long[capacity];
+        this.sNos = new long[capacity];
+        this.batteryStatuses = new String[capacity];
+        this.statusTimestamps = new long[capacity];
+        this.humidities = new byte[capacity];
+        this.temperatures = new short[capacity];
+        this.windSpeeds = new short[capacity];
+        this.nextRows = new int[capacity];
+        int slots = Integer.highestOneBit(Math.max(1, capacity) * 4 - 1);
+        this.slotStationIds = new long[slots];
+        this.slotFirstRows = new int[slots];
+        this.slotLastRows = new int[slots];
+        this.stationSlots = new int[capacity];
+        this.mask = slots - 1;
+        Arrays.fill(slotFirstRows, NO_ROW);
+    }
+
+    void add(WeatherMessage weatherMessage) {
+        if (size == capacity) throw new IllegalStateException("Staging buffer is full");
+        int row = size++;
+        long stationId = weatherMessage.station_id();
+        stationIds[row] = stationId;
+        sNos[row] = weatherMessage.s_no();
+        batteryStatuses[row] = weatherMessage.battery_status();
+        statusTimestamps[row] = weatherMessage.status_timestamp();
+        humidities[row] = weatherMessage.weather().humidity();
+        temperatures[row] = weatherMessage.weather().temperature();
+        windSpeeds[row] = weatherMessage.weather().wind_speed();
+        nextRows[row] = NO_ROW;
+
+        int slot = slotOf(stationId);
+        if (slotFirstRows[slot] == NO_ROW) {
+            slotStationIds[slot] = stationId;
+            slotFirstRows[slot] = row;
+            stationSlots[stationCount++] = slot;
+        } else {
+            nextRows[slotLastRows[slot]] = row;
+        }
+        slotLastRows[slot] = row;
+    }
+
+    private int slotOf(long stationId) {
+        int slot = (int) ((stationId * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (slotFirstRows[slot] != NO_ROW && slotStationIds[slot] != stationId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int stationCount() {
+        return stationCount;
+    }
+
+    long stationAt(int station) {
+        return slotStationIds[stationSlots[station]];
+    }
+
+    int firstRow(int station) {
+        return slotFirstRows[stationSlots[station]];
+    }
+
+    // Next row of the same station, or -1 after its last one
+    int nextRow(int row) {
+        return nextRows[row];
+    }
+
+    void select(int row) {
+        selectedRow = row;
+    }
+
+    int selectedRow() {
+        return selectedRow;
+    }
+
+    long stationId(int row) {
+        return stationIds[row];
+    }
+
+    long sNo(int row) {
+        return sNos[row];
+    }
+
+    String batteryStatus(int row) {
+        return batteryStatuses[row];
+    }
+
+    long statusTimestamp(int row) {
+        return statusTimestamps[row];
+    }
+
+    byte humidity(int row) {
+        return humidities[row];
+    }
+
+    short temperature(int row) {
+        return temperatures[row];
+    }
+
+    short windSpeed(int row) {
+        return windSpeeds[row];
+    }
+
+    // Keeps the arrays, only the strings are released
+    void clear() {
+        for (int station = 0; station < stationCount; station++) {
+            slotFirstRows[stationSlots[station]] = NO_ROW;
+        }
+        Arrays.fill(batteryStatuses, 0, size, null);
+        stationCount = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,106 @@
+package org.example;
+
+import org.example.model.CacheStats;
+import org.example.model.KeyDirValue;
+import org.example.model.WeatherMessage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Decoded WeatherMessages of the hot stations, so repeated reads skip the segment read and decoding.
+// Every entry remembers the on-disk location it was decoded from and is only served while the KeyDir
+// still points to that location: a newer put (or a compaction move) turns it into a miss, so a reader
+// can never see a value older than the KeyDir, whatever order puts and cache fills race in.
+// The cache is split into stripes, each an access-ordered LinkedHashMap (LRU) with its share of
+// the memory budget, so concurrent readers of different stations rarely contend on the same lock.
+public class ValueCache {
+
+    private static final int STRIPES = 16;
+    // Estimated retained heap of one entry without the battery status characters:
+    // map node, boxed key, Entry, WeatherMessage with its boxed fields, WeatherData and the String
+    private static final int ENTRY_OVERHEAD_BYTES = 280;
+
+    private record Entry(int segmentId, long valuePosition, WeatherMessage value, int weight) {
+    }
+
+    private static class Stripe {
+        private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight;
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long maxStripeWeight;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // maxBytes <= 0 disables the cache
+    public ValueCache(long maxBytes) {
+        this.maxStripeWeight = Math.max(0, maxBytes / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    // Returns the cached value if it was decoded from the given location, null otherwise
+    public WeatherMessage get(long key, KeyDirValue location) {
+        if (maxStripeWeight == 0) return null;
+        Stripe stripe = stripeOf(key);
+        Entry entry;
+        synchronized (stripe) {
+            entry = stripe.entries.get(key);
+        }
+        if (entry != null && entry.segmentId() == location.fileId() && entry.valuePosition() == location.valuePosition()) {
+            hits.increment();
+            return entry.value();
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(long key, KeyDirValue location, WeatherMessage value) {
+        if (maxStripeWeight == 0) return;
+        int weight = ENTRY_OVERHEAD_BYTES + value.battery_status().length();
+        Entry entry = new Entry(location.fileId(), location.valuePosition(), value, weight);
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            Entry previous = stripe.entries.put(key, entry);
+            stripe.weight += weight - (previous == null ? 0 : previous.weight());
+            // Least recently read stations go first
+            Iterator<Map.Entry<Long, Entry>> iterator = stripe.entries.entrySet().iterator();
+            while (stripe.weight > maxStripeWeight && iterator.hasNext()) {
+                stripe.weight -= iterator.next().getValue().weight();
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    // Frees the entry of an overwritten key early, correctness does not depend on it
+    public void invalidate(long key) {
+        if (maxStripeWeight == 0) return;
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            Entry previous = stripe.entries.remove(key);
+            if (previous != null) stripe.weight -= previous.weight();
+        }
+    }
+
+    public CacheStats getStats() {
+        int size = 0;
+        long weight = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+                weight += stripe.weight;
+            }
+        }
+        return new CacheStats(size, weight, maxStripeWeight * STRIPES, hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    private Stripe stripeOf(long key) {
+        return stripes[(int) ((key ^ (key >>> 32)) & (STRIPES - 1))];
+    }
+}
@@ -1,35 +1,163 @@
 package org.example;
 
 import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericData;
-import org.apache.avro.generic.GenericRecord;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.parquet.hadoop.ParquetFileWriter;
 import org.apache.parquet.hadoop.ParquetWriter;
 import org.apache.hadoop.fs.Path;
 import org.apache.parquet.hadoop.metadata.CompressionCodecName;
 import org.apache.parquet.hadoop.util.HadoopOutputFile;
+import jakarta.annotation.PreDestroy;
+import org.example.model.ArchiveStats;
 import org.example.model.WeatherData;
 import org.example.model.WeatherMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
-import static org.example.Constants.BATCH_SIZE;
+import static org.example.Constants.*;
 
+// Archiving stage of the consumer: callers only enqueue statuses, a dedicated thread drains the bounded queue
+// and flushes once BATCH_SIZE statuses are buffered or the oldest one has waited maxLatencyMs, so a quiet hour
+// does not leave statuses behind. A full queue is handled by the ArchiveBackpressure policy.
+// Statuses are staged column by column (StagedStatuses) and written by WeatherStatusWriteSupport, nothing is
+// allocated per status on the way. A flush appends to one open Parquet writer per date/hour/station partition,
+// and to the hour's ArchiveJournal, which is synced at the end of the flush.
+// receiveStatuses returns a future that completes once that sync made the statuses durable, at most about
+// maxLatencyMs later, so the consumer can hold their offsets until then. It fails if they could not be written.
+// A file is written under a hidden in-progress name and renamed to weather_<uuid>.parquet once finished: when the
+// hour is over, when it reaches targetFileBytes, when maxOpenFiles other partitions were written more recently,
+// or on close, so a station gets about one file per hour. Statuses in unfinished files are not visible to readers
+// yet. In-progress files left behind by a crash have no footer and cannot be read, they are deleted on start and
+// their statuses written again from the journal.
+@Component
 public class WeatherArchiver {
-    private final List<GenericRecord> buffer = new ArrayList<>();
+    private static final long IDLE_POLL_MS = 100;
+    private static final String IN_PROGRESS_EXTENSION = ".inprogress";
+
+    // Statuses of one receiveStatuses call, holding permits of the queue capacity. flush batches carry no
+    // statuses and flush everything staged when they are taken.
+    private record Batch(Collection<WeatherMessage> statuses, int permits, boolean flush,
+                         CompletableFuture<Void> archived) {
+    }
+
+    // Open file of one date/hour/station partition
+    private static final class PartitionWriter {
+        private final long stationId;
+        private final ParquetWriter<StagedStatuses> writer;
+        private final Path inProgress;
+        private final Path target;
+        private final long seq;
+
+        private PartitionWriter(long stationId, ParquetWriter<StagedStatuses> writer, Path inProgress, Path target,
+                                long seq) {
+            this.stationId = stationId;
+            this.writer = writer;
+            this.inProgress = inProgress;
+            this.target = target;
+            this.seq = seq;
+        }
+    }
+
+    private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<>();
+    // One permit per status the queue can still take
+    private final Semaphore room;
+    private final int queueCapacity;
+    private final ArchiveBackpressure backpressure;
+    private final long maxLatencyMs;
+    private final long targetFileBytes;
+    private final int maxOpenFiles;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "weather-archiver"));
+    private volatile boolean running = true;
+    // Owned by the flush thread
+    private final StagedStatuses staged = new StagedStatuses(BATCH_SIZE);
+    private long oldestBufferedAt;
+    // Batches with statuses in staged, complete once those are flushed and journaled
+    private final List<CompletableFuture<Void>> unflushed = new ArrayList<>();
+    private long nextWriterSeq;
+    // Journal of openHour, opened by its first flush. keepJournal is set when a file of the hour fails, the
+    // journal then stays for the next start to write the file's statuses again.
+    private ArchiveJournal journal;
+    private boolean keepJournal;
+    // Station id -> writer of its partition in openHour, least recently written first. Opening one more than
+    // maxOpenFiles finishes the least recently written one.
+    private final Map<Long, PartitionWriter> writers = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, PartitionWriter> eldest) {
+            if (size() <= maxOpenFiles) return false;
+            finish(eldest.getValue());
+            return true;
+        }
+    };
+    private LocalDateTime openHour;
+    private final Configuration conf = new Configuration();
+    private volatile int openFiles;
+    private volatile int buffered;
+
+    private final AtomicLong archived = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong filesWritten = new AtomicLong();
+    private final AtomicLong lastFlushDurationMs = new AtomicLong();
+    private final AtomicLong maxFlushDurationMs = new AtomicLong();
+    private final AtomicLong totalFlushDurationMs = new AtomicLong();
+
     private final Schema schema;
+    private final String directory;
     private final Logger logger = LoggerFactory.getLogger(WeatherArchiver.class);
 
+    // Used by Spring, everything is configured through the environment
     public WeatherArchiver() {
+        this(System.getenv().getOrDefault("ARCHIVE_DIR", DEFAULT_ARCHIVE_DIR),
+                Integer.parseInt(System.getenv().getOrDefault(
+                        "ARCHIVE_QUEUE_CAPACITY", String.valueOf(DEFAULT_ARCHIVE_QUEUE_CAPACITY))),
+                Long.parseLong(System.getenv().getOrDefault(
+                        "ARCHIVE_MAX_LATENCY_MS", String.valueOf(DEFAULT_ARCHIVE_MAX_LATENCY_MS))),
+                ArchiveBackpressure.valueOf(
+                        System.getenv().getOrDefault("ARCHIVE_BACKPRESSURE", DEFAULT_ARCHIVE_BACKPRESSURE).toUpperCase()),
+                Long.parseLong(System.getenv().getOrDefault(
+                        "ARCHIVE_TARGET_FILE_BYTES", String.valueOf(DEFAULT_ARCHIVE_TARGET_FILE_BYTES))),
+                Integer.parseInt(System.getenv().getOrDefault(
+                        "ARCHIVE_MAX_OPEN_FILES", String.valueOf(DEFAULT_ARCHIVE_MAX_OPEN_FILES))));
+    }
+
+    public WeatherArchiver(String directory) {
+        this(directory, DEFAULT_ARCHIVE_QUEUE_CAPACITY, DEFAULT_ARCHIVE_MAX_LATENCY_MS, ArchiveBackpressure.BLOCK,
+                DEFAULT_ARCHIVE_TARGET_FILE_BYTES, DEFAULT_ARCHIVE_MAX_OPEN_FILES);
+    }
+
+    public WeatherArchiver(String directory, int queueCapacity, long maxLatencyMs, ArchiveBackpressure backpressure,
+                           long targetFileBytes, int maxOpenFiles) {
+        if (maxOpenFiles < 1) throw new IllegalArgumentException("ARCHIVE_MAX_OPEN_FILES must be positive: " + maxOpenFiles);
+        this.directory = directory;
+        this.queueCapacity = queueCapacity;
+        this.room = new Semaphore(queueCapacity);
+        this.maxLatencyMs = maxLatencyMs;
+        this.backpressure = backpressure;
+        this.targetFileBytes = targetFileBytes;
+        this.maxOpenFiles = maxOpenFiles;
         try {
             this.schema = new Schema.Parser().parse(
                     // Stable and general way to retrieve resource files
@@ -38,75 +166,364 @@ public class WeatherArchiver {
         } catch (Exception e) {
             throw new RuntimeException("Failed to load Avro schema", e);
         }
+        deleteInProgressFiles();
+        recoverJournals();
+        executor.submit(this::run);
+        logger.info("Weather archiver started, flushing every {} statuses or {} ms, {} when full, at most {} open files",
+                BATCH_SIZE, maxLatencyMs, backpressure, maxOpenFiles);
     }
 
-    public void receiveStatus(WeatherMessage weatherMessage) {
-        GenericRecord record = new GenericData.Record(this.schema);
-        record.put("station_id", weatherMessage.station_id());
-        record.put("s_no", weatherMessage.s_no());
-        record.put("battery_status", weatherMessage.battery_status());
-        record.put("status_timestamp", weatherMessage.status_timestamp());
+    public CompletableFuture<Void> receiveStatus(WeatherMessage weatherMessage) {
+        return receiveStatuses(List.of(weatherMessage));
+    }
 
-        // Create nested record
-        Schema weatherSchema = this.schema.getField("weather").schema();
-        GenericRecord weather = new GenericData.Record(weatherSchema);
-        weather.put("humidity", weatherMessage.weather().humidity());
-        weather.put("temperature", weatherMessage.weather().temperature());
-        weather.put("wind_speed", weatherMessage.weather().wind_speed());
-        record.put("weather", weather);
+    // Completes once the statuses are written and journaled. Statuses dropped by the DROP policy complete it at
+    // once, that policy gives up on archiving them.
+    public CompletableFuture<Void> receiveStatuses(Collection<WeatherMessage> weatherMessages) {
+        // A batch larger than the whole queue waits until the queue is empty
+        int permits = Math.min(weatherMessages.size(), queueCapacity);
+        if (backpressure == ArchiveBackpressure.DROP) {
+            if (!room.tryAcquire(permits)) {
+                dropped.addAndGet(weatherMessages.size());
+                return CompletableFuture.completedFuture(null);
+            }
+        } else {
+            try {
+                room.acquire(permits);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped.addAndGet(weatherMessages.size());
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return enqueue(new Batch(weatherMessages, permits, false, new CompletableFuture<>()));
+    }
+
+    // Completes once everything received before is archived, without flushing early
+    public CompletableFuture<Void> archived() {
+        return enqueue(new Batch(List.of(), 0, false, new CompletableFuture<>()));
+    }
+
+    // Flushes everything received before, for a consumer that hands its partitions back and should not wait
+    // maxLatencyMs for their offsets
+    public CompletableFuture<Void> flush() {
+        return enqueue(new Batch(List.of(), 0, true, new CompletableFuture<>()));
+    }
+
+    // Synchronized with close(), so nothing is queued once the flush thread may have taken its last batch
+    private CompletableFuture<Void> enqueue(Batch batch) {
+        synchronized (queue) {
+            if (!running) {
+                room.release(batch.permits());
+                batch.archived().completeExceptionally(new IllegalStateException("Weather archiver is closed"));
+            } else {
+                queue.add(batch);
+            }
+        }
+        return batch.archived();
+    }
+
+    // Flushes whatever is queued or buffered before returning
+    @PreDestroy
+    public void close() {
+        synchronized (queue) {
+            running = false;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("Weather archiver did not flush its queue in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public ArchiveStats getStats() {
+        return new ArchiveStats(
+                queueCapacity - room.availablePermits(),
+                queueCapacity,
+                buffered,
+                openFiles,
+                archived.get(),
+                dropped.get(),
+                flushes.get(),
+                filesWritten.get(),
+                lastFlushDurationMs.get(),
+                maxFlushDurationMs.get(),
+                totalFlushDurationMs.get()
+        );
+    }
+
+    private void run() {
+        while (running || !queue.isEmpty()) {
+            try {
+                Batch batch = queue.poll(pollTimeoutMs(), TimeUnit.MILLISECONDS);
+                if (batch != null) stage(batch);
+                if (staged.size() >= BATCH_SIZE
+                        || (!staged.isEmpty() && System.currentTimeMillis() - oldestBufferedAt >= maxLatencyMs)) {
+                    flushToParquet();
+                }
+                // Also when no statuses arrive, so the files of the last hour do not stay open
+                rollIfHourChanged(LocalDateTime.now());
+                if (staged.isEmpty()) completeUnflushed();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                // An exception would stop the flush thread for good
+                logger.error("Failed to archive {} statuses", staged.size(), e);
+                staged.clear();
+                buffered = 0;
+                failPending(e);
+            }
+        }
+        flushToParquet();
+        finishAll();
+        closeJournal();
+        if (staged.isEmpty()) completeUnflushed();
+        failPending(new IllegalStateException("Weather archiver is closed"));
+        for (Batch batch : queue) {
+            batch.archived().completeExceptionally(new IllegalStateException("Weather archiver is closed"));
+        }
+    }
+
+    private void stage(Batch batch) {
+        // Before the statuses are written, so a file failing during this batch also fails its future
+        unflushed.add(batch.archived());
+        for (WeatherMessage weatherMessage : batch.statuses()) {
+            if (staged.size() >= BATCH_SIZE) flushToParquet();
+            if (staged.isEmpty()) oldestBufferedAt = System.currentTimeMillis();
+            staged.add(weatherMessage);
+        }
+        room.release(batch.permits());
+        buffered = staged.size();
+        if (batch.flush()) flushToParquet();
+    }
 
-        this.buffer.add(record);
+    // Only once every status of the batches is flushed, the journal holding them is synced by then
+    private void completeUnflushed() {
+        for (CompletableFuture<Void> archived : unflushed) {
+            archived.complete(null);
+        }
+        unflushed.clear();
+    }
 
-        if (this.buffer.size() >= BATCH_SIZE) {
-            flushToParquet();
+    // Statuses of some of these batches are lost, the caller must not count any of them as archived
+    private void failPending(Throwable error) {
+        for (CompletableFuture<Void> archived : unflushed) {
+            archived.completeExceptionally(error);
         }
+        unflushed.clear();
+    }
+
+    // Short enough to notice close() while statuses wait for the latency flush
+    private long pollTimeoutMs() {
+        if (staged.isEmpty()) return IDLE_POLL_MS;
+        return Math.max(0, Math.min(IDLE_POLL_MS, oldestBufferedAt + maxLatencyMs - System.currentTimeMillis()));
     }
 
     private void flushToParquet() {
-        if (this.buffer.isEmpty()) return;
+        if (staged.isEmpty()) return;
+        long start = System.currentTimeMillis();
 
-        // Group records by station_id
-        Map<Long, List<GenericRecord>> grouped = this.buffer.stream()
-                .collect(Collectors.groupingBy(r -> (Long) r.get("station_id")));
+        rollIfHourChanged(LocalDateTime.now());
+        try {
+            if (journal == null) journal = ArchiveJournal.open(directory, openHour, BATCH_SIZE);
+            writeStaged(openHour);
+            // The flushed statuses are durable from here on, even though their files are not finished
+            journal.sync();
+        } catch (IOException e) {
+            logger.error("Failed to journal {} statuses", staged.size(), e);
+            failPending(e);
+        }
 
-        String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-        String hour = LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH"));
+        staged.clear();
+        buffered = 0;
+        openFiles = writers.size();
+        long duration = System.currentTimeMillis() - start;
+        flushes.incrementAndGet();
+        lastFlushDurationMs.set(duration);
+        maxFlushDurationMs.accumulateAndGet(duration, Math::max);
+        totalFlushDurationMs.addAndGet(duration);
+    }
 
-        for (Map.Entry<Long, List<GenericRecord>> entry : grouped.entrySet()) {
-            Long stationId = entry.getKey();
-            List<GenericRecord> records = entry.getValue();
+    // Appends the staged statuses to the writers of the hour's partitions, and to the journal when there is one
+    private void writeStaged(LocalDateTime hourStart) {
+        String date = hourStart.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+        String hour = hourStart.format(DateTimeFormatter.ofPattern("HH"));
 
-            String dirPath = String.format("data/date=%s/hour=%s/station_id=%d/", date, hour, stationId);
-            File directory = new File(dirPath);
-            if (!directory.exists() && !directory.mkdirs()) {
-                logger.warn("Failed to create directory: {}", dirPath);
-                continue;
+        for (int station = 0; station < staged.stationCount(); station++) {
+            long stationId = staged.stationAt(station);
+            PartitionWriter partitionWriter = writers.get(stationId);
+            try {
+                if (partitionWriter == null) {
+                    String dirPath = String.format("%s/date=%s/hour=%s/station_id=%d/", directory, date, hour, stationId);
+                    partitionWriter = openWriter(stationId, dirPath);
+                    writers.put(stationId, partitionWriter);
+                }
+                int records = 0;
+                for (int row = staged.firstRow(station); row != -1; row = staged.nextRow(row)) {
+                    staged.select(row);
+                    partitionWriter.writer.write(staged);
+                    if (journal != null) journal.appendStatus(partitionWriter.seq, staged, row);
+                    records++;
+                }
+                archived.addAndGet(records);
+                // Parquet's estimate counts buffered pages before compression, files end up smaller on disk
+                if (partitionWriter.writer.getDataSize() >= targetFileBytes) {
+                    writers.remove(stationId);
+                    finish(partitionWriter);
+                }
+            } catch (IOException e) {
+                logger.error("Failed to write the statuses of station {}", stationId, e);
+                if (partitionWriter != null) {
+                    writers.remove(stationId);
+                    abort(partitionWriter);
+                }
+                failPending(e);
             }
+        }
+    }
+
+    // Open files belong to a single hour partition, finish them all once the hour is over
+    private void rollIfHourChanged(LocalDateTime now) {
+        LocalDateTime hour = now.truncatedTo(ChronoUnit.HOURS);
+        if (!hour.equals(openHour)) {
+            finishAll();
+            closeJournal();
+            openHour = hour;
+        }
+    }
+
+    // Every file of the hour is finished, its journal is not needed any more unless one of them failed
+    private void closeJournal() {
+        if (journal == null) return;
+        try {
+            journal.close();
+            if (keepJournal) {
+                logger.warn("Keeping {}, its statuses are archived again on the next start", journal.getFile());
+            } else {
+                Files.deleteIfExists(journal.getFile().toPath());
+            }
+        } catch (IOException e) {
+            logger.error("Failed to close the archive journal {}", journal.getFile(), e);
+        }
+        journal = null;
+        keepJournal = false;
+    }
 
-            String uniqueFileName = "weather_" + UUID.randomUUID() + ".parquet";
-            String fullPath = dirPath + uniqueFileName;
-
-            Path filePath = new Path(fullPath);
-            Configuration conf = new Configuration();
-            try (
-                    ParquetWriter<GenericRecord> writer = AvroParquetWriter
-                            .<GenericRecord>builder(HadoopOutputFile.fromPath(filePath, conf))
-                            .withConf(conf)
-                            .withSchema(this.schema)
-                            .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
-                            .withCompressionCodec(CompressionCodecName.GZIP)
-                            .build()
-            ) {
-                for (GenericRecord record : records) {
-                    writer.write(record);
+    // Writes the statuses of the files a previous run did not finish, into new files of their hour
+    private void recoverJournals() {
+        for (File file : ArchiveJournal.list(directory)) {
+            try {
+                ArchiveJournal.Recovered recovered = ArchiveJournal.read(file);
+                for (WeatherMessage status : recovered.statuses()) {
+                    if (staged.size() >= BATCH_SIZE) {
+                        writeStaged(recovered.hour());
+                        staged.clear();
+                    }
+                    staged.add(status);
                 }
-                logger.info("Wrote {} records to {}", records.size(), fullPath);
-            } catch (IOException e) {
-                logger.error("Failed to write Parquet file: {}", fullPath, e);
+                writeStaged(recovered.hour());
+                staged.clear();
+                finishAll();
+                if (keepJournal) {
+                    keepJournal = false;
+                    continue;
+                }
+                Files.deleteIfExists(file.toPath());
+                logger.info("Archived {} statuses from {}", recovered.statuses().size(), file.getName());
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to recover the archive journal {}", file, e);
+                staged.clear();
+                finishAll();
+            }
+        }
+    }
+
+    private PartitionWriter openWriter(long stationId, String dirPath) throws IOException {
+        File directory = new File(dirPath);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + dirPath);
+        }
+
+        // Readers only pick up *.parquet files, the file is renamed once its footer is written
+        String uniqueFileName = "weather_" + UUID.randomUUID() + ".parquet";
+        Path target = new Path(dirPath + uniqueFileName);
+        Path inProgress = new Path(dirPath + "." + uniqueFileName + IN_PROGRESS_EXTENSION);
+        ParquetWriter<StagedStatuses> writer = WeatherStatusWriteSupport
+                .builder(HadoopOutputFile.fromPath(inProgress, conf), this.schema)
+                .withConf(conf)
+                .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+                .withCompressionCodec(CompressionCodecName.GZIP)
+                .build();
+        return new PartitionWriter(stationId, writer, inProgress, target, nextWriterSeq++);
+    }
+
+    private void finishAll() {
+        for (PartitionWriter partitionWriter : writers.values()) {
+            finish(partitionWriter);
+        }
+        writers.clear();
+        openFiles = 0;
+    }
+
+    // Writes the footer and publishes the file under its final name, the rename also moves the checksum file.
+    // It is on disk before it gets its final name, and only then is it recorded as finished in the journal.
+    private void finish(PartitionWriter partitionWriter) {
+        try {
+            partitionWriter.writer.close();
+            try (FileChannel channel = FileChannel.open(
+                    Paths.get(partitionWriter.inProgress.toUri().getPath()), StandardOpenOption.WRITE)) {
+                channel.force(true);
             }
+            FileSystem fileSystem = partitionWriter.target.getFileSystem(conf);
+            if (!fileSystem.rename(partitionWriter.inProgress, partitionWriter.target)) {
+                throw new IOException("Rename to " + partitionWriter.target + " failed");
+            }
+            filesWritten.incrementAndGet();
+            logger.debug("Wrote {}", partitionWriter.target);
+            // A crash before the next sync archives its statuses a second time on start
+            if (journal != null) journal.appendFinished(partitionWriter.seq);
+        } catch (IOException e) {
+            logger.error("Failed to finish Parquet file: {}", partitionWriter.inProgress, e);
+            keepJournal = true;
+            failPending(e);
         }
+    }
 
-        this.buffer.clear();
+    // The in-progress file is left behind, it has no footer and is never picked up by readers. The statuses
+    // journaled for it are archived again on the next start.
+    private void abort(PartitionWriter partitionWriter) {
+        keepJournal = true;
+        try {
+            partitionWriter.writer.close();
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Failed to close Parquet file: {}", partitionWriter.inProgress, e);
+        }
+    }
+
+    // In-progress files (and their checksum files) of a previous run that did not finish them
+    private void deleteInProgressFiles() {
+        java.nio.file.Path root = Paths.get(directory);
+        if (!Files.isDirectory(root)) return;
+        try (Stream<java.nio.file.Path> files = Files.walk(root)) {
+            List<java.nio.file.Path> orphaned = files
+                    .filter(file -> file.getFileName().toString().endsWith(IN_PROGRESS_EXTENSION)
+                            || file.getFileName().toString().endsWith(IN_PROGRESS_EXTENSION + ".crc"))
+                    .toList();
+            for (java.nio.file.Path file : orphaned) {
+                Files.deleteIfExists(file);
+            }
+            if (!orphaned.isEmpty()) logger.warn("Deleted {} unfinished archive files", orphaned.size());
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Failed to delete unfinished archive files in {}", directory, e);
+        }
     }
 
     // Simulate receiving weather status data (for testing purposes)
@@ -125,6 +542,7 @@ public class WeatherArchiver {
             );
             weatherArchiver.receiveStatus(weatherMessage);
         }
+        weatherArchiver.close();
         System.out.println("Finished writing 10K weather records.");
     }
 }
@@ -0,0 +1,220 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.example.model.WeatherData;
+import org.example.model.WeatherMessage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+// Parses the JSON published by the weather stations straight from the record bytes with a streaming parser,
+// without an intermediate String or a databind tree. Jackson recycles the parser buffers per thread.
+// Fields may come in any order, the order the stations write them in is just the fast path.
+// Unknown fields are skipped, missing or null fields are left null for MessageValidator to reject,
+// anything that is not a weather message throws MalformedWeatherMessageException.
+// Producers may also send the Avro binary encoding of weather_status.avsc, marked by the schema fingerprint
+// in the FINGERPRINT_HEADER header (see WeatherMessageSerde in the producer modules), those skip JSON entirely.
+public class WeatherMessageDeserializer implements Deserializer<WeatherMessage> {
+
+    private static final int STATION_ID = 0;
+    private static final int S_NO = 1;
+    private static final int BATTERY_STATUS = 2;
+    private static final int STATUS_TIMESTAMP = 3;
+    private static final int WEATHER = 4;
+    private static final int UNKNOWN = -1;
+    private static final int END = -2;
+    private static final SerializedString[] MESSAGE_FIELDS = {
+            new SerializedString("station_id"),
+            new SerializedString("s_no"),
+            new SerializedString("battery_status"),
+            new SerializedString("status_timestamp"),
+            new SerializedString("weather")
+    };
+
+    private static final int HUMIDITY = 0;
+    private static final int TEMPERATURE = 1;
+    private static final int WIND_SPEED = 2;
+    private static final SerializedString[] WEATHER_FIELDS = {
+            new SerializedString("humidity"),
+            new SerializedString("temperature"),
+            new SerializedString("wind_speed")
+    };
+
+    public static final String FINGERPRINT_HEADER = "weather.schema.fingerprint";
+    private static final byte[] FINGERPRINT = fingerprint();
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @Override
+    public WeatherMessage deserialize(String topic, Headers headers, byte[] data) {
+        Header fingerprint = headers == null ? null : headers.lastHeader(FINGERPRINT_HEADER);
+        if (data == null || fingerprint == null) return deserialize(topic, data);
+        if (!Arrays.equals(fingerprint.value(), FINGERPRINT)) {
+            throw new MalformedWeatherMessageException(
+                    "Unknown weather message schema " + HexFormat.of().formatHex(fingerprint.value()), data);
+        }
+        return readAvro(data);
+    }
+
+    @Override
+    public WeatherMessage deserialize(String topic, byte[] data) {
+        if (data == null) return null;
+        try (JsonParser parser = jsonFactory.createParser(data)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new MalformedWeatherMessageException("Weather message is not a JSON object", data);
+            }
+            WeatherMessage message = readMessage(parser, data);
+            if (parser.nextToken() != null) {
+                throw new MalformedWeatherMessageException("Trailing content after the weather message", data);
+            }
+            return message;
+        } catch (IOException e) {
+            throw new MalformedWeatherMessageException("Malformed weather message: " + e.getMessage(), data, e);
+        }
+    }
+
+    // Fields in the order of weather_status.avsc, any change to the schema changes the fingerprint
+    private static WeatherMessage readAvro(byte[] data) {
+        try {
+            BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(data, null);
+            long stationId = decoder.readLong();
+            long sNo = decoder.readLong();
+            String batteryStatus = decoder.readString();
+            long statusTimestamp = decoder.readLong();
+            int humidity = checkRange(decoder.readInt(), Byte.MIN_VALUE, Byte.MAX_VALUE, "humidity", data);
+            int temperature = checkRange(decoder.readInt(), Short.MIN_VALUE, Short.MAX_VALUE, "temperature", data);
+            int windSpeed = checkRange(decoder.readInt(), Short.MIN_VALUE, Short.MAX_VALUE, "wind_speed", data);
+            if (!decoder.isEnd()) {
+                throw new MalformedWeatherMessageException("Trailing bytes after the weather message", data);
+            }
+            return new WeatherMessage(stationId, sNo, batteryStatus, statusTimestamp,
+                    new WeatherData((byte) humidity, (short) temperature, (short) windSpeed));
+        } catch (EOFException e) {
+            throw new MalformedWeatherMessageException("Truncated Avro weather message", data, e);
+        } catch (IOException e) {
+            throw new MalformedWeatherMessageException("Malformed Avro weather message: " + e.getMessage(), data, e);
+        }
+    }
+
+    private static int checkRange(int value, int min, int max, String field, byte[] data) {
+        if (value < min || value > max) {
+            throw new MalformedWeatherMessageException(field + " is not an integer in [" + min + ", " + max + "]", data);
+        }
+        return value;
+    }
+
+    private static byte[] fingerprint() {
+        try (InputStream schema = WeatherMessageDeserializer.class.getClassLoader().getResourceAsStream("weather_status.avsc")) {
+            long fingerprint = SchemaNormalization.parsingFingerprint64(new Schema.Parser().parse(schema));
+            return ByteBuffer.allocate(Long.BYTES).putLong(fingerprint).array();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load Avro schema", e);
+        }
+    }
+
+    private WeatherMessage readMessage(JsonParser parser, byte[] data) throws IOException {
+        Long stationId = null;
+        Long sNo = null;
+        String batteryStatus = null;
+        Long statusTimestamp = null;
+        WeatherData weather = null;
+        boolean hasWeather = false;
+
+        int expected = 0;
+        while (true) {
+            int field = nextField(parser, MESSAGE_FIELDS, expected);
+            if (field == END) break;
+            expected = field + 1;
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case STATION_ID -> stationId = readLong(parser, value, data);
+                case S_NO -> sNo = readLong(parser, value, data);
+                case BATTERY_STATUS -> batteryStatus = readString(parser, value, data);
+                case STATUS_TIMESTAMP -> statusTimestamp = readLong(parser, value, data);
+                case WEATHER -> {
+                    if (value != JsonToken.START_OBJECT) {
+                        throw new MalformedWeatherMessageException("weather is not a JSON object", data);
+                    }
+                    weather = readWeather(parser, data);
+                    hasWeather = true;
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        // WeatherData holds primitives, there is nothing to leave null
+        if (!hasWeather) throw new MalformedWeatherMessageException("Missing weather", data);
+        return new WeatherMessage(stationId, sNo, batteryStatus, statusTimestamp, weather);
+    }
+
+    private WeatherData readWeather(JsonParser parser, byte[] data) throws IOException {
+        int humidity = 0;
+        int temperature = 0;
+        int windSpeed = 0;
+        int expected = 0;
+        while (true) {
+            int field = nextField(parser, WEATHER_FIELDS, expected);
+            if (field == END) break;
+            expected = field + 1;
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case HUMIDITY -> humidity = readInt(parser, value, Byte.MIN_VALUE, Byte.MAX_VALUE, data);
+                case TEMPERATURE -> temperature = readInt(parser, value, Short.MIN_VALUE, Short.MAX_VALUE, data);
+                case WIND_SPEED -> windSpeed = readInt(parser, value, Short.MIN_VALUE, Short.MAX_VALUE, data);
+                default -> parser.skipChildren();
+            }
+        }
+        return new WeatherData((byte) humidity, (short) temperature, (short) windSpeed);
+    }
+
+    // Index of the next field of the object, UNKNOWN for a field that is not mapped, or END
+    private static int nextField(JsonParser parser, SerializedString[] fields, int expected) throws IOException {
+        // Compares the raw bytes of the name when the fields come in the expected order
+        if (expected < fields.length && parser.nextFieldName(fields[expected])) return expected;
+        if (expected >= fields.length) parser.nextToken();
+        if (parser.currentToken() == JsonToken.END_OBJECT) return END;
+        String name = parser.currentName();
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].getValue().equals(name)) return i;
+        }
+        return UNKNOWN;
+    }
+
+    private static Long readLong(JsonParser parser, JsonToken value, byte[] data) throws IOException {
+        if (value == JsonToken.VALUE_NULL) return null;
+        if (value != JsonToken.VALUE_NUMBER_INT || parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+            throw new MalformedWeatherMessageException(parser.currentName() + " is not a long", data);
+        }
+        return parser.getLongValue();
+    }
+
+    private static String readString(JsonParser parser, JsonToken value, byte[] data) throws IOException {
+        if (value == JsonToken.VALUE_NULL) return null;
+        if (value != JsonToken.VALUE_STRING) {
+            throw new MalformedWeatherMessageException(parser.currentName() + " is not a string", data);
+        }
+        return parser.getText();
+    }
+
+    private static int readInt(JsonParser parser, JsonToken value, int min, int max, byte[] data) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() == JsonParser.NumberType.INT) {
+            int number = parser.getIntValue();
+            if (number >= min && number <= max) return number;
+        }
+        throw new MalformedWeatherMessageException(
+                parser.currentName() + " is not an integer in [" + min + ", " + max + "]", data);
+    }
+}
@@ -0,0 +1,126 @@
+package org.example;
+
+import org.apache.avro.Schema;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.avro.AvroSchemaConverter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.GroupType;
+import org.apache.parquet.schema.MessageType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Writes the selected row of a StagedStatuses straight from its columns, instead of going through a
+// GenericRecord per status like AvroWriteSupport. The file schema and footer are the ones AvroParquetWriter
+// writes for weather_status.avsc, so AvroParquetReader, the compactor and pandas read both the same way.
+final class WeatherStatusWriteSupport extends WriteSupport<StagedStatuses> {
+    // Same key as AvroWriteSupport, Avro readers take the record schema from it
+    private static final String AVRO_SCHEMA_KEY = "parquet.avro.schema";
+    // Battery statuses come from a handful of values, their encoded form is reused
+    private static final int MAX_CACHED_BATTERY_STATUSES = 16;
+
+    private final Schema schema;
+    private final MessageType messageType;
+    private final int stationIdField;
+    private final int sNoField;
+    private final int batteryStatusField;
+    private final int statusTimestampField;
+    private final int weatherField;
+    private final int humidityField;
+    private final int temperatureField;
+    private final int windSpeedField;
+    private final Map<String, Binary> batteryStatuses = new HashMap<>();
+    private RecordConsumer recordConsumer;
+
+    WeatherStatusWriteSupport(Schema schema) {
+        this.schema = schema;
+        this.messageType = new AvroSchemaConverter().convert(schema);
+        this.stationIdField = messageType.getFieldIndex("station_id");
+        this.sNoField = messageType.getFieldIndex("s_no");
+        this.batteryStatusField = messageType.getFieldIndex("battery_status");
+        this.statusTimestampField = messageType.getFieldIndex("status_timestamp");
+        this.weatherField = messageType.getFieldIndex("weather");
+        GroupType weather = messageType.getType(weatherField).asGroupType();
+        this.humidityField = weather.getFieldIndex("humidity");
+        this.temperatureField = weather.getFieldIndex("temperature");
+        this.windSpeedField = weather.getFieldIndex("wind_speed");
+    }
+
+    static Builder builder(OutputFile file, Schema schema) {
+        return new Builder(file, schema);
+    }
+
+    @Override
+    public WriteContext init(Configuration configuration) {
+        return new WriteContext(messageType, Map.of(AVRO_SCHEMA_KEY, schema.toString()));
+    }
+
+    @Override
+    public void prepareForWrite(RecordConsumer recordConsumer) {
+        this.recordConsumer = recordConsumer;
+    }
+
+    @Override
+    public void write(StagedStatuses statuses) {
+        int row = statuses.selectedRow();
+        recordConsumer.startMessage();
+        writeLong("station_id", stationIdField, statuses.stationId(row));
+        writeLong("s_no", sNoField, statuses.sNo(row));
+        recordConsumer.startField("battery_status", batteryStatusField);
+        recordConsumer.addBinary(encode(statuses.batteryStatus(row)));
+        recordConsumer.endField("battery_status", batteryStatusField);
+        writeLong("status_timestamp", statusTimestampField, statuses.statusTimestamp(row));
+
+        recordConsumer.startField("weather", weatherField);
+        recordConsumer.startGroup();
+        writeInt("humidity", humidityField, statuses.humidity(row));
+        writeInt("temperature", temperatureField, statuses.temperature(row));
+        writeInt("wind_speed", windSpeedField, statuses.windSpeed(row));
+        recordConsumer.endGroup();
+        recordConsumer.endField("weather", weatherField);
+        recordConsumer.endMessage();
+    }
+
+    private void writeLong(String name, int index, long value) {
+        recordConsumer.startField(name, index);
+        recordConsumer.addLong(value);
+        recordConsumer.endField(name, index);
+    }
+
+    private void writeInt(String name, int index, int value) {
+        recordConsumer.startField(name, index);
+        recordConsumer.addInteger(value);
+        recordConsumer.endField(name, index);
+    }
+
+    private Binary encode(String batteryStatus) {
+        Binary binary = batteryStatuses.get(batteryStatus);
+        if (binary != null) return binary;
+        binary = Binary.fromString(batteryStatus);
+        if (batteryStatuses.size() < MAX_CACHED_BATTERY_STATUSES) batteryStatuses.put(batteryStatus, binary);
+        return binary;
+    }
+
+    static final class Builder extends ParquetWriter.Builder<StagedStatuses, Builder> {
+        private final Schema schema;
+
+        private Builder(OutputFile file, Schema schema) {
+            super(file);
+            this.schema = schema;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<StagedStatuses> getWriteSupport(Configuration conf) {
+            return new WeatherStatusWriteSupport(schema);
+        }
+    }
+}
@@ -7,10 +7,13 @@ case $1 in
   --view)
     curl -X GET "http://localhost:8080/bitcask-kv/view?key=$2"
     ;;
+  --export)
+    curl -X GET "http://localhost:8080/bitcask-kv/export?format=${2:-ndjson}"
+    ;;
   --perf)
     curl -X GET "http://localhost:8080/bitcask-kv/perf?clients=$2"
     ;;
   *)
-    echo "Usage: $0 [--view-all | --view --key=<some_key> | --perf --clients=<no_clients>]"
+    echo "Usage: $0 [--view-all | --view --key=<some_key> | --export [ndjson|csv] | --perf --clients=<no_clients>]"
     ;;
 esac
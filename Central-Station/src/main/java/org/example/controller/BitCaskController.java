@@ -1,66 +1,61 @@
 package org.example.controller;
 
+import org.example.ArchiveCompactor;
 import org.example.BitCask;
-import org.example.model.KeyDirValue;
+import org.example.DeadLetterPublisher;
+import org.example.BitCaskScan;
+import org.example.PollingConsumer;
+import org.example.WeatherArchiver;
 import org.example.model.WeatherMessage;
-import org.example.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Paths;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
-import static org.example.Constants.CLIENT_DIR;
-
 @RestController
 @RequestMapping("/bitcask-kv")
 public class BitCaskController {
 
     private final BitCask bitCask;
+    private final PollingConsumer pollingConsumer;
+    private final WeatherArchiver weatherArchiver;
+    private final ArchiveCompactor archiveCompactor;
+    private final DeadLetterPublisher deadLetterPublisher;
     private final Logger logger = LoggerFactory.getLogger(BitCaskController.class);
 
     @Autowired
-    public BitCaskController(BitCask bitCask) {
+    public BitCaskController(BitCask bitCask, PollingConsumer pollingConsumer, WeatherArchiver weatherArchiver,
+                             ArchiveCompactor archiveCompactor, DeadLetterPublisher deadLetterPublisher) {
         this.bitCask = bitCask;
+        this.pollingConsumer = pollingConsumer;
+        this.weatherArchiver = weatherArchiver;
+        this.archiveCompactor = archiveCompactor;
+        this.deadLetterPublisher = deadLetterPublisher;
     }
 
-    // Endpoint to view all keys and values
+    // Endpoint to view all keys and values, kept for existing scripts: the csv export
     @GetMapping("/view-all")
-    public ResponseEntity<String> viewAll() {
-        Utils.createDirectory(CLIENT_DIR);
-        String fileName = System.currentTimeMillis() + ".csv";
-        String filePath = Paths.get(CLIENT_DIR, fileName).toString();
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))) {
-            writer.write("Key,Value\n");
-            Map<Long, KeyDirValue> keyDirMap = bitCask.getKeyDirMap();
-            for (Map.Entry<Long, KeyDirValue> entry : keyDirMap.entrySet()) {
-                WeatherMessage weatherMessage = bitCask.get(entry.getKey());
-                writer.write(entry.getKey() + "," + weatherMessage + "\n");
-            }
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error writing CSV file " + fileName + "\n");
-        }
-
-        return ResponseEntity.ok("CSV file saved at " + filePath + "\n");
+    public ResponseEntity<StreamingResponseBody> viewAll() {
+        return export(ExportFormat.CSV.name());
     }
 
     // Endpoint to view the value of a specific key
     @GetMapping("/view")
     public ResponseEntity<String> viewKey(@RequestParam("key") Long key) {
-        Utils.createDirectory(CLIENT_DIR);
         WeatherMessage weatherMessage = bitCask.get(key);
 
         if (weatherMessage == null) {
@@ -70,43 +65,92 @@ public class BitCaskController {
         return ResponseEntity.ok(weatherMessage.toString());
     }
 
-    // Endpoint to simulate multiple clients querying the data concurrently
+    // Endpoint to expose storage engine counters (key count, compaction, ...), ingestion latencies, dead letters,
+    // archiving and archive compaction
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>(bitCask.getStats());
+        stats.put("ingestion", pollingConsumer.getStats());
+        stats.put("deadLetter", deadLetterPublisher.getStats());
+        stats.put("archive", weatherArchiver.getStats());
+        stats.put("archiveCompaction", archiveCompactor.getStats());
+        return ResponseEntity.ok(stats);
+    }
+
+    // Endpoint to stream every station's latest reading, as ndjson (default) or csv.
+    // Rows are written while the store is scanned chunk by chunk, so neither the response nor a file is built up front.
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(value = "format", defaultValue = "ndjson") String format) {
+        ExportFormat exportFormat;
+        try {
+            exportFormat = ExportFormat.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        // Runs on the async executor, the servlet output stream blocks while the client is not reading
+        StreamingResponseBody body = out -> {
+            try (BitCaskScan scan = bitCask.scan()) {
+                exportFormat.write(scan, out);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                .body(body);
+    }
+
+    // Endpoint to simulate multiple clients exporting the data concurrently.
+    // Every client streams a full csv export into a counting sink, so only the read path is measured.
     @GetMapping("/perf")
     public ResponseEntity<String> performanceTest(@RequestParam("clients") int clients) {
-        Utils.createDirectory(CLIENT_DIR);
         ExecutorService executorService = Executors.newFixedThreadPool(clients);
         List<Future<String>> futures = new ArrayList<>();
 
         for (int i = 0; i < clients; i++) {
             final int clientId = i;
             futures.add(executorService.submit(() -> {
-                String fileName = System.currentTimeMillis() + "_thread_" + clientId + ".csv";
-                String filePath = Paths.get(CLIENT_DIR, fileName).toString();
-
-                try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))) {
-                    writer.write("Key,Value\n");
-                    Map<Long, KeyDirValue> keyDirMap = bitCask.getKeyDirMap();
-                    for (Map.Entry<Long, KeyDirValue> entry : keyDirMap.entrySet()) {
-                        WeatherMessage weatherMessage = bitCask.get(entry.getKey());
-                        writer.write(entry.getKey() + "," + weatherMessage + "\n");
-                    }
+                long start = System.nanoTime();
+                CountingOutputStream sink = new CountingOutputStream();
+                try (BitCaskScan scan = bitCask.scan()) {
+                    ExportFormat.CSV.write(scan, sink);
                 } catch (IOException e) {
-                    return "Error writing CSV file for client " + clientId + "\n";
+                    return "Error exporting data for client " + clientId + "\n";
                 }
-                return "Data saved for client " + clientId + "\n";
+                long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+                return "Client " + clientId + " exported " + sink.getCount() + " bytes in " + elapsedMs + " ms\n";
             }));
         }
 
         executorService.shutdown();
 
+        StringBuilder report = new StringBuilder();
         try {
             for (Future<String> future : futures) {
-                logger.info(future.get());
+                String result = future.get();
+                logger.info(result);
+                report.append(result);
             }
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error during performance test\n");
         }
 
-        return ResponseEntity.ok("Performance test completed\n");
+        return ResponseEntity.ok(report.append("Performance test completed\n").toString());
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
     }
 }
@@ -0,0 +1,68 @@
+package org.example.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.example.model.WeatherData;
+import org.example.model.WeatherMessage;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+// Row formats of the streaming export, every record is written as soon as it is read
+public enum ExportFormat {
+    // One JSON object per line, same field names as the Kafka messages
+    NDJSON("application/x-ndjson") {
+        @Override
+        public void write(Iterator<WeatherMessage> messages, OutputStream out) throws IOException {
+            if (!messages.hasNext()) return;
+            // The separator only goes between values, the last line is terminated below
+            try (SequenceWriter writer = OBJECT_MAPPER.writer().withRootValueSeparator("\n").writeValues(out)) {
+                while (messages.hasNext()) {
+                    writer.write(messages.next());
+                }
+            }
+            out.write('\n');
+        }
+    },
+    CSV("text/csv") {
+        @Override
+        public void write(Iterator<WeatherMessage> messages, OutputStream out) throws IOException {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            writer.write("station_id,s_no,battery_status,status_timestamp,humidity,temperature,wind_speed\n");
+            while (messages.hasNext()) {
+                WeatherMessage message = messages.next();
+                WeatherData weather = message.weather();
+                writer.write(message.station_id() + "," + message.s_no() + "," + message.battery_status() + ","
+                        + message.status_timestamp() + "," + weather.humidity() + "," + weather.temperature() + ","
+                        + weather.wind_speed() + "\n");
+            }
+            writer.flush();
+        }
+    };
+
+    // Flushing is left to the response buffer, and closing to the caller
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String contentType;
+
+    ExportFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    // Does not close the stream
+    public abstract void write(Iterator<WeatherMessage> messages, OutputStream out) throws IOException;
+}
@@ -0,0 +1,13 @@
+package org.example.model;
+
+public record ArchiveCompactionStats(
+        long runs,
+        long partitionsCompacted,
+        long filesMerged,
+        long recordsRewritten,
+        long bytesRead,
+        long bytesWritten,
+        long lastRunDurationMs,
+        long totalRunDurationMs
+) {
+}
@@ -0,0 +1,15 @@
+package org.example.model;
+
+import java.util.List;
+
+// Content of the _manifest.json of a compacted archive partition.
+// files are the compacted files of the partition, replaced the ones they were merged from: readers take every
+// *.parquet file of the partition except the replaced ones. While a listed file is missing (a swap not published
+// yet) they take the replaced files instead and skip the listed ones.
+public record ArchiveManifest(
+        List<String> files,
+        List<String> replaced,
+        long records,
+        long compactedAt
+) {
+}
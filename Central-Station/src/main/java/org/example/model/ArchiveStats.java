@@ -0,0 +1,16 @@
+package org.example.model;
+
+public record ArchiveStats(
+        int queueDepth,
+        int queueCapacity,
+        int buffered, // taken from the queue, waiting for the next flush
+        int openFiles, // in-progress Parquet files, one per partition
+        long archived, // written to Parquet writers
+        long dropped,
+        long flushes,
+        long filesWritten, // finished and renamed
+        long lastFlushDurationMs,
+        long maxFlushDurationMs,
+        long totalFlushDurationMs
+) {
+}
@@ -0,0 +1,29 @@
+package org.example.model;
+
+// Stored as a single byte (the ordinal) in BitCask values, never reorder the constants
+public enum BatteryStatus {
+    LOW,
+    MEDIUM,
+    HIGH;
+
+    private static final BatteryStatus[] VALUES = values();
+
+    public byte code() {
+        return (byte) ordinal();
+    }
+
+    public static BatteryStatus fromCode(byte code) {
+        if (code < 0 || code >= VALUES.length) {
+            throw new IllegalArgumentException("Invalid battery status code: " + code);
+        }
+        return VALUES[code];
+    }
+
+    // Case-insensitive, the stations send the constant names
+    public static BatteryStatus parse(String status) {
+        for (BatteryStatus value : VALUES) {
+            if (value.name().equalsIgnoreCase(status)) return value;
+        }
+        throw new IllegalArgumentException("Invalid battery status: " + status);
+    }
+}
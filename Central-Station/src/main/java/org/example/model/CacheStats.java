@@ -0,0 +1,11 @@
+package org.example.model;
+
+public record CacheStats(
+        int entries,
+        long estimatedBytes,
+        long maxBytes,
+        long hits,
+        long misses,
+        long evictions
+) {
+}
@@ -0,0 +1,11 @@
+package org.example.model;
+
+public record CompactionStats(
+        int segmentCount, // currently open segments, active one included
+        long compactions,
+        long segmentsMerged,
+        long bytesReclaimed,
+        long lastMergeDurationMs,
+        long totalMergeDurationMs
+) {
+}
@@ -0,0 +1,13 @@
+package org.example.model;
+
+import java.util.Map;
+
+public record DeadLetterStats(
+        Map<RejectionReason, Long> rejected, // per failed rule, whether or not the record could be published
+        int queued, // waiting for the publishing thread
+        long published, // acknowledged by the broker
+        long failed, // send completed with an error
+        long dropped, // not queued, the queue was full or the publisher stopped
+        long inFlight // handed to the producer, not acknowledged yet
+) {
+}
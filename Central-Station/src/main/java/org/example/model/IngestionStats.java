@@ -0,0 +1,18 @@
+package org.example.model;
+
+public record IngestionStats(
+        long batches, // polls that returned records
+        long records,
+        long rejected, // unparsable or invalid, sent to no store
+        long duplicates, // already accepted, dropped before validation
+        int lastBatchSize,
+        double averageBatchSize,
+        StageLatency dispatch, // splitting a poll among the workers, values are decoded inside poll
+        StageLatency validate, // per worker sub-batch
+        StageLatency put, // per worker sub-batch, until durable
+        StageLatency archive, // per worker sub-batch, enqueueing to WeatherArchiver
+        StageLatency commit // whole poll
+) {
+    public record StageLatency(long count, long lastMicros, double averageMicros, long maxMicros) {
+    }
+}
@@ -1,11 +1,9 @@
 package org.example.model;
 
-import java.io.File;
-
 public record KeyDirValue(
-        File fileId,
-        Long valuePosition,
-        Integer valueSize,
-        Long timeStamp
+        int fileId, // id of the segment assigned by the SegmentManager
+        long valuePosition,
+        int valueSize,
+        long timeStamp
 ) {
 }
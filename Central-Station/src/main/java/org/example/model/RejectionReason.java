@@ -0,0 +1,12 @@
+package org.example.model;
+
+// Why a Weather-Metrics record was sent to the dead-letter topic, the name is the value of its reason header
+public enum RejectionReason {
+    MALFORMED, // could not be decoded
+    EMPTY, // no payload
+    STATION_ID,
+    S_NO,
+    BATTERY_STATUS,
+    STALE_TIMESTAMP, // older than the latest accepted reading of the station
+    HUMIDITY
+}
@@ -0,0 +1,108 @@
+package org.example.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Binary format of a WeatherMessage stored as a BitCask value.
+// Version 1, fixed width (31 bytes):
+//   [0x81][station_id 8][s_no 8][battery_status 1][status_timestamp 8][humidity 1][temperature 2][wind_speed 2]
+// Version 0, written before values were versioned:
+//   [station_id 8][s_no 8][battery_status length 4][battery_status UTF-8][status_timestamp 8][humidity 1][temperature 2][wind_speed 2]
+// Station ids are never negative, so a version 0 value never starts with a byte that has the high bit set.
+// All reads are absolute, single fields can be read without decoding the whole message.
+public final class WeatherMessageCodec {
+
+    public static final byte VERSION_1 = (byte) 0x81;
+    public static final int ENCODED_SIZE = 31;
+
+    private static final int STATION_ID = 1;
+    private static final int S_NO = STATION_ID + Long.BYTES;
+    private static final int BATTERY_STATUS = S_NO + Long.BYTES;
+    private static final int STATUS_TIMESTAMP = BATTERY_STATUS + Byte.BYTES;
+    private static final int WEATHER = STATUS_TIMESTAMP + Long.BYTES;
+
+    // Version 0 offsets up to the battery status, the rest moves with its length
+    private static final int V0_STATION_ID = 0;
+    private static final int V0_S_NO = Long.BYTES;
+    private static final int V0_BATTERY_STATUS_LENGTH = 2 * Long.BYTES;
+    private static final int V0_BATTERY_STATUS = V0_BATTERY_STATUS_LENGTH + Integer.BYTES;
+
+    private WeatherMessageCodec() {
+    }
+
+    // Writes ENCODED_SIZE bytes at the buffer's position and advances it
+    public static void encode(WeatherMessage message, ByteBuffer buffer) {
+        BatteryStatus batteryStatus = BatteryStatus.parse(message.battery_status());
+        WeatherData weather = message.weather();
+        buffer.put(VERSION_1)
+                .putLong(message.station_id())
+                .putLong(message.s_no())
+                .put(batteryStatus.code())
+                .putLong(message.status_timestamp())
+                .put(weather.humidity())
+                .putShort(weather.temperature())
+                .putShort(weather.wind_speed());
+    }
+
+    public static WeatherMessage decode(byte[] value) {
+        return decode(ByteBuffer.wrap(value), 0);
+    }
+
+    public static WeatherMessage decode(ByteBuffer buffer, int offset) {
+        if (isVersion1(buffer, offset)) {
+            return new WeatherMessage(
+                    buffer.getLong(offset + STATION_ID),
+                    buffer.getLong(offset + S_NO),
+                    BatteryStatus.fromCode(buffer.get(offset + BATTERY_STATUS)).name(),
+                    buffer.getLong(offset + STATUS_TIMESTAMP),
+                    decodeWeather(buffer, offset + WEATHER)
+            );
+        }
+        int statusTimestamp = v0StatusTimestampOffset(buffer, offset);
+        return new WeatherMessage(
+                buffer.getLong(offset + V0_STATION_ID),
+                buffer.getLong(offset + V0_S_NO),
+                readBatteryStatus(buffer, offset),
+                buffer.getLong(statusTimestamp),
+                decodeWeather(buffer, statusTimestamp + Long.BYTES)
+        );
+    }
+
+    public static boolean isVersion1(ByteBuffer buffer, int offset) {
+        return buffer.get(offset) == VERSION_1;
+    }
+
+    public static boolean isVersion1(byte[] value) {
+        return value.length > 0 && value[0] == VERSION_1;
+    }
+
+    public static long readStationId(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset + (isVersion1(buffer, offset) ? STATION_ID : V0_STATION_ID));
+    }
+
+    public static long readStatusTimestamp(ByteBuffer buffer, int offset) {
+        if (isVersion1(buffer, offset)) return buffer.getLong(offset + STATUS_TIMESTAMP);
+        return buffer.getLong(v0StatusTimestampOffset(buffer, offset));
+    }
+
+    // Version 1 values return the shared enum constant name, no String is allocated
+    public static String readBatteryStatus(ByteBuffer buffer, int offset) {
+        if (isVersion1(buffer, offset)) return BatteryStatus.fromCode(buffer.get(offset + BATTERY_STATUS)).name();
+        int length = buffer.getInt(offset + V0_BATTERY_STATUS_LENGTH);
+        byte[] bytes = new byte[length];
+        buffer.get(offset + V0_BATTERY_STATUS, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int v0StatusTimestampOffset(ByteBuffer buffer, int offset) {
+        return offset + V0_BATTERY_STATUS + buffer.getInt(offset + V0_BATTERY_STATUS_LENGTH);
+    }
+
+    private static WeatherData decodeWeather(ByteBuffer buffer, int offset) {
+        return new WeatherData(
+                buffer.get(offset),
+                buffer.getShort(offset + Byte.BYTES),
+                buffer.getShort(offset + Byte.BYTES + Short.BYTES)
+        );
+    }
+}
@@ -1,5 +1,6 @@
 package org.example.utils;
 
+import org.example.model.RejectionReason;
 import org.example.model.WeatherMessage;
 
 import java.util.List;
@@ -9,11 +10,17 @@ public class MessageValidator {
     private static final List<String> VALID_BATTERY_STATUSES = List.of("low", "medium", "high");
 
     public static boolean isValid(WeatherMessage msg, Long lastAddedTimestamp) {
-        return isStationIdValid(msg.station_id())
-                && isSNoValid(msg.s_no())
-                && isBatteryStatusValid(msg.battery_status())
-                && isTimestampValid(msg.status_timestamp(), lastAddedTimestamp)
-                && isHumidityValid(msg.weather().humidity());
+        return validate(msg, lastAddedTimestamp) == null;
+    }
+
+    // First rule the message breaks, null when it is valid
+    public static RejectionReason validate(WeatherMessage msg, Long lastAddedTimestamp) {
+        if (!isStationIdValid(msg.station_id())) return RejectionReason.STATION_ID;
+        if (!isSNoValid(msg.s_no())) return RejectionReason.S_NO;
+        if (!isBatteryStatusValid(msg.battery_status())) return RejectionReason.BATTERY_STATUS;
+        if (!isTimestampValid(msg.status_timestamp(), lastAddedTimestamp)) return RejectionReason.STALE_TIMESTAMP;
+        if (!isHumidityValid(msg.weather().humidity())) return RejectionReason.HUMIDITY;
+        return null;
     }
 
     private static boolean isStationIdValid(Long id) {
@@ -0,0 +1,39 @@
+package org.example.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Token bucket over bytes, used to keep background I/O (e.g. compaction) under a bandwidth budget.
+// Not thread-safe, every background job owns its limiter.
+public class RateLimiter {
+    private final long bytesPerSecond;
+    private final long maxBurst;
+    private double availableBytes;
+    private long lastRefillNanos;
+
+    public RateLimiter(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) throw new IllegalArgumentException("Invalid rate: " + bytesPerSecond);
+        this.bytesPerSecond = bytesPerSecond;
+        this.maxBurst = bytesPerSecond; // at most one second worth of I/O at once
+        this.availableBytes = 0;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    // Blocks until the given amount of bytes may be read or written
+    public void acquire(long bytes) {
+        refill();
+        availableBytes -= bytes;
+        if (availableBytes < 0) {
+            long waitNanos = (long) (-availableBytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+            LockSupport.parkNanos(waitNanos);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        // In double, elapsed nanos times the rate overflows a long after a few minutes of idling
+        double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        availableBytes = Math.min(maxBurst, availableBytes + elapsedSeconds * bytesPerSecond);
+        lastRefillNanos = now;
+    }
+}
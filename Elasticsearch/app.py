@@ -1,3 +1,4 @@
+import json
 import os
 import time
 import pandas as pd
@@ -10,6 +11,7 @@ DATA_DIR = "../data"
 ES_INDEX = "weather_status"
 ES_HOST = "http://localhost:9200"
 PROCESSED_FILE_LOG = "processed_files.txt"
+MANIFEST_FILE = "_manifest.json"
 SLEEP_SECONDS = 30
 
 # Connect to Elasticsearch
@@ -27,20 +29,43 @@ def save_processed(path):
         f.write(path + "\n")
 
 # Watch & index Parquet files
+# A partition compacted by Central-Station has a manifest: the files it replaced are skipped, and the whole
+# partition waits while a compacted file is not renamed into place yet.
 def get_all_parquet_paths(data_dir):
     print(f"🔍 Searching for Parquet files in {os.walk(data_dir)}")
     for root, _, files in os.walk(data_dir):
         print(f"🔍 Scanning {root} for Parquet files...")
+        replaced = set()
+        if MANIFEST_FILE in files:
+            with open(os.path.join(root, MANIFEST_FILE), "r") as f:
+                manifest = json.load(f)
+            if any(name not in files for name in manifest["files"]):
+                print(f"🕒 Compaction of {root} in progress, skipping")
+                continue
+            replaced = set(manifest["replaced"])
         for file in files:
-            if file.endswith(".parquet"):
+            if file.endswith(".parquet") and not file.startswith((".", "_")) and file not in replaced:
                 yield os.path.join(root, file)
 
+# Files merged into a compacted file, their records are indexed already when all of them were processed
+def replaced_paths(parquet_path):
+    manifest_path = os.path.join(os.path.dirname(parquet_path), MANIFEST_FILE)
+    if not os.path.exists(manifest_path):
+        return None
+    with open(manifest_path, "r") as f:
+        manifest = json.load(f)
+    if os.path.basename(parquet_path) not in manifest["files"]:
+        return None
+    return [os.path.join(os.path.dirname(parquet_path), name) for name in manifest["replaced"]]
+
 def parquet_to_es(parquet_path):
     df = pd.read_parquet(parquet_path)
 
     actions = [
         {
             "_index": ES_INDEX,
+            # Same id for a status in a source file and in the compacted file, indexing both keeps one document
+            "_id": f"{row['station_id']}-{row['s_no']}-{row['status_timestamp']}",
             "_source": row.dropna().to_dict()
         }
         for _, row in df.iterrows()
@@ -61,6 +86,10 @@ def main():
 
         if new_files:
             for path in new_files:
+                replaced = replaced_paths(path)
+                if replaced is not None and all(p in processed_files for p in replaced):
+                    save_processed(path)
+                    continue
                 try:
                     parquet_to_es(path)
                     save_processed(path)
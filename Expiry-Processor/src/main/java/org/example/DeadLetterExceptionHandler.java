@@ -0,0 +1,79 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.errors.DeserializationExceptionHandler;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.example.model.DeadLetterMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Properties;
+
+// Records that are neither JSON nor Avro weather messages go to Weather-Metrics-DLT, next to the expired ones, as a
+// "Malformed" dead letter without a weather message, and the stream continues. Invalid-Message is left to
+// Central-Station, which rejects the same records. The headers carry the decoding error and the source position.
+// Kafka Streams creates a handler per task, they share one producer.
+public class DeadLetterExceptionHandler implements DeserializationExceptionHandler {
+    static final String DEAD_LETTER_TOPIC = "Weather-Metrics-DLT";
+    static final String REASON_HEADER = "dead-letter.reason";
+    static final String ERROR_HEADER = "dead-letter.error";
+    static final String SOURCE_TOPIC_HEADER = "dead-letter.source.topic";
+    static final String SOURCE_PARTITION_HEADER = "dead-letter.source.partition";
+    static final String SOURCE_OFFSET_HEADER = "dead-letter.source.offset";
+    static final String MALFORMED = "MALFORMED";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static Producer<byte[], byte[]> producer;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        synchronized (DeadLetterExceptionHandler.class) {
+            if (producer != null) return;
+            Properties props = new Properties();
+            props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, configs.get(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG));
+            props.setProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, "gzip");
+            Producer<byte[], byte[]> created = new KafkaProducer<>(props, new ByteArraySerializer(), new ByteArraySerializer());
+            // Sends what is still batched before the process exits
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> created.close(Duration.ofSeconds(5))));
+            producer = created;
+        }
+    }
+
+    @Override
+    public DeserializationHandlerResponse handle(ProcessorContext context, ConsumerRecord<byte[], byte[]> record,
+                                                 Exception exception) {
+        RecordHeaders headers = new RecordHeaders();
+        header(headers, REASON_HEADER, MALFORMED);
+        if (exception.getMessage() != null) header(headers, ERROR_HEADER, exception.getMessage());
+        header(headers, SOURCE_TOPIC_HEADER, record.topic());
+        header(headers, SOURCE_PARTITION_HEADER, String.valueOf(record.partition()));
+        header(headers, SOURCE_OFFSET_HEADER, String.valueOf(record.offset()));
+        try {
+            byte[] value = objectMapper.writeValueAsBytes(new DeadLetterMessage("Malformed", System.currentTimeMillis(), null));
+            producer.send(new ProducerRecord<>(DEAD_LETTER_TOPIC, null, record.key(), value, headers),
+                    (metadata, e) -> {
+                        if (e != null) {
+                            System.err.println("Error publishing a dead letter from " + record.topic() + "-"
+                                    + record.partition() + "@" + record.offset() + ": " + e.getMessage());
+                        }
+                    });
+        } catch (JsonProcessingException | RuntimeException e) {
+            System.err.println("Error publishing a dead letter: " + e.getMessage());
+        }
+        return DeserializationHandlerResponse.CONTINUE;
+    }
+
+    private static void header(RecordHeaders headers, String key, String value) {
+        headers.add(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,14 +1,13 @@
 package org.example;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.Serdes;
 import org.apache.kafka.streams.KafkaStreams;
 import org.apache.kafka.streams.StreamsBuilder;
 import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.kstream.Consumed;
 import org.example.model.DeadLetterMessage;
-import org.example.model.WeatherMessage;
 
 import java.time.Duration;
 import java.util.Properties;
@@ -25,19 +24,18 @@ public class ExpiryProcessor {
         props.put(StreamsConfig.DEFAULT_KEY_SERDE_CLASS_CONFIG, Serdes.String().getClass());
         props.put(StreamsConfig.DEFAULT_VALUE_SERDE_CLASS_CONFIG, Serdes.String().getClass());
         props.setProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, "gzip");
+        // Records that are neither JSON nor Avro weather messages go to Weather-Metrics-DLT instead of stopping the stream
+        props.put(StreamsConfig.DEFAULT_DESERIALIZATION_EXCEPTION_HANDLER_CLASS_CONFIG, DeadLetterExceptionHandler.class);
 
         StreamsBuilder builder = new StreamsBuilder();
 
-        builder.stream("Weather-Metrics")
-                .filter((key, value) -> {
-                    try {
-                        long timestamp = parseTimestamp(value);
-                        return System.currentTimeMillis() - timestamp > TTL_MS;
-                    } catch (Exception e) { return true; }
-                })
+        // Weather-Metrics values are JSON or Avro, see WeatherMessageSerde
+        builder.stream("Weather-Metrics", Consumed.with(Serdes.String(), new WeatherMessageSerde()))
+                .filter((key, value) -> value == null || value.status_timestamp() == null
+                        || System.currentTimeMillis() - value.status_timestamp() > TTL_MS)
                 .mapValues(value -> {
                     try {
-                        DeadLetterMessage message = new DeadLetterMessage("Expired", System.currentTimeMillis(), (WeatherMessage) value);
+                        DeadLetterMessage message = new DeadLetterMessage("Expired", System.currentTimeMillis(), value);
                         return this.objectMapper.writeValueAsString(message);
                     } catch (Exception e) {
                         System.err.println("Error parsing value: " + e.getMessage());
@@ -62,16 +60,6 @@ public class ExpiryProcessor {
         }
     }
 
-    private Integer parseTimestamp(Object record) {
-        try {
-            JsonNode root = this.objectMapper.readTree(record.toString());
-            return root.path("weather").path("humidity").asInt();
-        } catch (Exception e) {
-            System.err.println("Error parsing humidity: " + e.getMessage());
-            return 0;
-        }
-    }
-
     public static void main(String[] args) {
         new ExpiryProcessor().detect();
     }
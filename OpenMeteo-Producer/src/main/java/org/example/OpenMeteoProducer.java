@@ -3,9 +3,12 @@ package org.example;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.example.model.Location;
 import org.example.model.WeatherData;
 import org.example.model.WeatherMessage;
 
@@ -14,87 +17,217 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
+// Adapter from Open-Meteo to Weather-Metrics: every poll emits one message per configured location, under the
+// station id the location was given. Locations are fetched concurrently with sendAsync, at most `concurrency`
+// requests at a time, and only for the current values the message uses. A response is reused until the provider's
+// next update (current.time + current.interval), after which the request is conditional when the provider sent
+// an ETag or Last-Modified.
 public class OpenMeteoProducer {
+    static final String TOPIC = "Weather-Metrics";
+    static final String DEFAULT_BASE_URL = "https://api.open-meteo.com/v1/forecast";
+    static final String DEFAULT_LOCATIONS = "10:31.2001,29.9187";
+    private static final String CURRENT_FIELDS = "relative_humidity_2m,temperature_2m,wind_speed_10m";
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    // Last response of a location, written by the HTTP client threads
+    private static final class LocationState {
+        private final Location location;
+        private final URI uri;
+        private final AtomicLong sNo = new AtomicLong(0);
+        private final AtomicBoolean fetching = new AtomicBoolean();
+        private volatile WeatherData weather;
+        private volatile long freshUntil;
+        private volatile String etag;
+        private volatile String lastModified;
+
+        private LocationState(Location location, URI uri) {
+            this.location = location;
+            this.uri = uri;
+        }
+    }
+
     private final HttpClient client;
-    private final AtomicLong ID_GENERATOR;
+    private final Producer<String, WeatherMessage> producer;
+    private final List<LocationState> locations;
+    private final Semaphore permits;
+    private final long pollSeconds;
     private final ScheduledExecutorService SCHEDULER;
     private final Random RANDOM;
     private final ObjectMapper objectMapper;
 
     public OpenMeteoProducer() {
-        this.client = HttpClient.newHttpClient();
+        this(createProducer(),
+                System.getenv().getOrDefault("OPEN_METEO_BASE_URL", DEFAULT_BASE_URL),
+                Location.parseAll(System.getenv().getOrDefault("OPEN_METEO_LOCATIONS", DEFAULT_LOCATIONS)),
+                Integer.parseInt(System.getenv().getOrDefault("OPEN_METEO_CONCURRENCY", "8")),
+                Long.parseLong(System.getenv().getOrDefault("OPEN_METEO_POLL_SECONDS", "10")));
+    }
+
+    public OpenMeteoProducer(Producer<String, WeatherMessage> producer, String baseUrl, List<Location> locations,
+                             int concurrency, long pollSeconds) {
+        this.client = HttpClient.newBuilder().connectTimeout(REQUEST_TIMEOUT).build();
+        this.producer = producer;
+        this.permits = new Semaphore(concurrency);
+        this.pollSeconds = pollSeconds;
         this.SCHEDULER = Executors.newScheduledThreadPool(1);
-        this.ID_GENERATOR = new AtomicLong(0);
         this.RANDOM = new Random();
         this.objectMapper = new ObjectMapper();
+        Set<Long> stationIds = new HashSet<>();
+        this.locations = locations.stream().map(location -> {
+            if (!stationIds.add(location.station_id())) {
+                throw new IllegalArgumentException("Station id " + location.station_id() + " is used by two locations");
+            }
+            return new LocationState(location, URI.create(baseUrl
+                    + "?latitude=" + location.latitude()
+                    + "&longitude=" + location.longitude()
+                    + "&current=" + CURRENT_FIELDS
+                    + "&timeformat=unixtime"));
+        }).toList();
     }
 
-    public void emit(){
+    private static Producer<String, WeatherMessage> createProducer() {
         Properties props = new Properties();
-        props.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "kafka:9092");
-        props.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        props.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        props.setProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, "gzip");
-
-        this.SCHEDULER.scheduleAtFixedRate(() -> {
-            try (KafkaProducer<String, String> producer = new KafkaProducer<>(props)) {
-                String message = getMessage();
-                if (message != null) {
-                    ProducerRecord<String, String> record = new ProducerRecord<>("Weather-Metrics", message);
-                    producer.send(record);
-                    System.out.println("Message sent: " + message);
+        props.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, System.getenv().getOrDefault("BOOTSTRAP_SERVERS", "kafka:9092"));
+        props.setProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        props.setProperty(ProducerConfig.LINGER_MS_CONFIG, "20");
+        return new KafkaProducer<>(props, new StringSerializer(), new WeatherMessageSerde().serializer());
+    }
+
+    public void emit() {
+        this.SCHEDULER.scheduleAtFixedRate(this::poll, 0, pollSeconds, TimeUnit.SECONDS);
+    }
+
+    // One round over the locations, fresh ones are sent right away and the others once their response arrives
+    public void poll() {
+        for (LocationState state : locations) {
+            try {
+                if (System.currentTimeMillis() < state.freshUntil) {
+                    send(state, state.weather);
+                    continue;
+                }
+                // Still fetching since an earlier round, it sends when its response arrives
+                if (!state.fetching.compareAndSet(false, true)) continue;
+                // Waits for a free slot, so a slow provider delays the round instead of piling up requests
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    // Not fetched after all, later rounds must not skip it
+                    state.fetching.set(false);
+                    throw e;
                 }
+                fetch(state);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                // Would cancel every following run of the scheduled task
+                System.err.println("Error polling station " + state.location.station_id() + ": " + e.getMessage());
             }
-        }, 0, 10, TimeUnit.SECONDS);
+        }
     }
 
-    private String getMessage() {
+    private void fetch(LocationState state) {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(state.uri)
+                .timeout(REQUEST_TIMEOUT)
+                .GET();
+        if (state.weather != null) {
+            if (state.etag != null) request.header("If-None-Match", state.etag);
+            if (state.lastModified != null) request.header("If-Modified-Since", state.lastModified);
+        }
         try {
-            String OPEN_METEO_URL = "https://api.open-meteo.com/v1/forecast?latitude=31.2001&longitude=29.9187&current=relative_humidity_2m,temperature_2m,wind_speed_10m&timezone=Africa%2FCairo&forecast_days=16";
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(OPEN_METEO_URL))
-                .timeout(Duration.ofSeconds(10))
-                .GET()
-                .build();
-
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            if (response.statusCode() == 200) {
-                Long messageID =  this.ID_GENERATOR.incrementAndGet();
-
-                double p = RANDOM.nextDouble();
-                String batteryStatus =
-                        p < 0.3 ? BatteryStatus.LOW.name() :
-                                p < 0.7 ? BatteryStatus.MEDIUM.name() :
-                                        BatteryStatus.HIGH.name();
-
-                long timestamp = System.currentTimeMillis();
-
-                JsonNode root = objectMapper.readTree(response.body());
-                JsonNode current = root.path("current");
-
-                int humidity = current.path("relative_humidity_2m").asInt();
-                int temperature = (int) Math.round(current.path("temperature_2m").asDouble());
-                int windSpeed = (int) Math.round(current.path("wind_speed_10m").asDouble());
-
-                WeatherData weatherData = new WeatherData(humidity, temperature, windSpeed);
-                WeatherMessage weatherMessage = new WeatherMessage(10L, messageID, batteryStatus, timestamp, weatherData);
-                return objectMapper.writeValueAsString(weatherMessage);
-            } else {
+            client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, e) -> {
+                        try {
+                            if (e != null) {
+                                System.err.println("Error fetching station " + state.location.station_id() + ": " + e.getMessage());
+                            } else {
+                                receive(state, response);
+                            }
+                        } finally {
+                            // After the cache is updated, so the next round does not fetch it again
+                            state.fetching.set(false);
+                            permits.release();
+                        }
+                    });
+        } catch (RuntimeException e) {
+            permits.release();
+            state.fetching.set(false);
+            throw e;
+        }
+    }
+
+    private void receive(LocationState state, HttpResponse<String> response) {
+        try {
+            if (response.statusCode() == 304 && state.weather != null) {
+                // Unchanged, checked again on the next round
+                send(state, state.weather);
+                return;
+            }
+            if (response.statusCode() != 200) {
                 System.err.println("Failed to fetch data: " + response.statusCode());
+                return;
             }
+            JsonNode current = objectMapper.readTree(response.body()).path("current");
+            int humidity = current.path("relative_humidity_2m").asInt();
+            int temperature = (int) Math.round(current.path("temperature_2m").asDouble());
+            int windSpeed = (int) Math.round(current.path("wind_speed_10m").asDouble());
+            WeatherData weatherData = new WeatherData(humidity, temperature, windSpeed);
+
+            state.weather = weatherData;
+            state.etag = response.headers().firstValue("ETag").orElse(null);
+            state.lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+            // Values of an interval stay the same until the next one starts, unixtime seconds
+            long time = current.path("time").asLong();
+            long interval = current.path("interval").asLong();
+            state.freshUntil = time > 0 && interval > 0 ? (time + interval) * 1000 : 0;
+            send(state, weatherData);
         } catch (Exception e) {
+            System.err.println("Error reading station " + state.location.station_id() + ": " + e.getMessage());
+        }
+    }
+
+    private void send(LocationState state, WeatherData weatherData) {
+        // 30% for LOW, 40% for MEDIUM, 30% for HIGH
+        double p = RANDOM.nextDouble();
+        String batteryStatus =
+                p < 0.3 ? BatteryStatus.LOW.name() :
+                        p < 0.7 ? BatteryStatus.MEDIUM.name() :
+                                BatteryStatus.HIGH.name();
+
+        WeatherMessage message = new WeatherMessage(state.location.station_id(), state.sNo.incrementAndGet(),
+                batteryStatus, System.currentTimeMillis(), weatherData);
+        try {
+            producer.send(new ProducerRecord<>(TOPIC, message), (metadata, e) -> {
+                if (e == null) {
+                    System.out.println("Message sent: " + message);
+                } else {
+                    System.err.println("Error sending message: " + e.getMessage());
+                }
+            });
+        } catch (SerializationException e) {
             System.err.println("Error serializing message: " + e.getMessage());
         }
-        return null;
+    }
+
+    // Sends what is still batched before the process exits
+    public void close() {
+        this.SCHEDULER.shutdown();
+        producer.close(Duration.ofSeconds(5));
     }
 
     public static void main(String[] args) {
         OpenMeteoProducer producer = new OpenMeteoProducer();
+        Runtime.getRuntime().addShutdownHook(new Thread(producer::close));
         producer.emit();
     }
-}
\ No newline at end of file
+}
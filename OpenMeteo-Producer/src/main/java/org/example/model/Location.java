@@ -0,0 +1,27 @@
+package org.example.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Place polled from Open-Meteo, reported as the station with the given id
+public record Location(Long station_id, double latitude, double longitude) {
+
+    // "<station id>:<latitude>,<longitude>" entries separated by ';', e.g. "10:31.2001,29.9187;11:30.0444,31.2357"
+    public static List<Location> parseAll(String value) {
+        List<Location> locations = new ArrayList<>();
+        for (String entry : value.split(";")) {
+            if (entry.isBlank()) continue;
+            String[] idAndCoordinates = entry.trim().split(":");
+            String[] coordinates = idAndCoordinates.length == 2 ? idAndCoordinates[1].split(",") : new String[0];
+            if (coordinates.length != 2) {
+                throw new IllegalArgumentException("Invalid location, expected <station id>:<latitude>,<longitude>: " + entry);
+            }
+            locations.add(new Location(
+                    Long.parseLong(idAndCoordinates[0].trim()),
+                    Double.parseDouble(coordinates[0].trim()),
+                    Double.parseDouble(coordinates[1].trim())
+            ));
+        }
+        return locations;
+    }
+}
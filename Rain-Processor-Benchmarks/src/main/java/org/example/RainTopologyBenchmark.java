@@ -0,0 +1,119 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TestOutputTopic;
+import org.apache.kafka.streams.Topology;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.example.model.RainMessage;
+import org.example.model.WeatherData;
+import org.example.model.WeatherMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Records per second through the rain topology in a TopologyTestDriver, from Weather-Metrics JSON values to
+// Raining values. "string" is the topology before the typed serdes, which parsed each value with readTree up to
+// three times, "typed" is RainProcessor.topology(). About 30% of the statuses are above the humidity threshold.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+// Kafka Streams takes several seconds of JIT compilation to reach a steady state
+@Warmup(iterations = 5, time = 3)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RainTopologyBenchmark {
+
+    private static final int MESSAGE_COUNT = 1024;
+
+    @Param({"string", "typed"})
+    private String topology;
+
+    private byte[][] values;
+    private TopologyTestDriver driver;
+    private TestInputTopic<String, byte[]> input;
+    private TestOutputTopic<byte[], byte[]> output;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        WeatherMessageSerde.WeatherMessageSerializer serializer =
+                new WeatherMessageSerde.WeatherMessageSerializer(WeatherMessageSerde.Format.JSON);
+        values = new byte[MESSAGE_COUNT][];
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            WeatherMessage message = new WeatherMessage((long) random.nextInt(1000), (long) i, "MEDIUM", timestamp + i,
+                    new WeatherData(random.nextInt(100), 25, 13));
+            values[i] = serializer.serialize(RainProcessor.INPUT_TOPIC, message);
+        }
+
+        Properties props = RainProcessor.properties();
+        props.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "unused:9092");
+        driver = new TopologyTestDriver(topology.equals("string") ? stringTopology() : RainProcessor.topology(), props);
+        input = driver.createInputTopic(RainProcessor.INPUT_TOPIC, new StringSerializer(), new ByteArraySerializer());
+        output = driver.createOutputTopic(RainProcessor.OUTPUT_TOPIC, new ByteArrayDeserializer(), new ByteArrayDeserializer());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        driver.close();
+    }
+
+    // Outputs are drained every batch, the driver keeps them until read
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_COUNT)
+    public int pipeBatch() {
+        for (byte[] value : values) {
+            input.pipeInput(null, value);
+        }
+        return output.readValuesToList().size();
+    }
+
+    // The topology as it was before the typed serdes, on the default String serdes of RainProcessor.properties()
+    private static Topology stringTopology() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        StreamsBuilder builder = new StreamsBuilder();
+        builder.<String, String>stream(RainProcessor.INPUT_TOPIC)
+                .filter((key, value) -> {
+                    try { return parseHumidity(objectMapper, value) > 70; }
+                    catch (Exception e) { return false; }
+                })
+                .mapValues(value -> {
+                    try {
+                        Long stationID = parseStationID(objectMapper, value);
+                        Integer humidity = parseHumidity(objectMapper, value);
+                        return objectMapper.writeValueAsString(new RainMessage(stationID, humidity));
+                    } catch (Exception e) {
+                        return null;
+                    }
+                })
+                .to(RainProcessor.OUTPUT_TOPIC);
+        return builder.build();
+    }
+
+    private static Long parseStationID(ObjectMapper objectMapper, String record) {
+        try {
+            JsonNode root = objectMapper.readTree(record);
+            return root.path("station_id").asLong();
+        } catch (Exception e) {
+            return 0L;
+        }
+    }
+
+    private static Integer parseHumidity(ObjectMapper objectMapper, String record) {
+        try {
+            JsonNode root = objectMapper.readTree(record);
+            return root.path("weather").path("humidity").asInt();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+}
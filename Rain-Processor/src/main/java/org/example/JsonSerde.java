@@ -0,0 +1,43 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.io.IOException;
+
+// JSON values of the output topics and of the episode store, the same bytes as the String values written before
+public class JsonSerde<T> implements Serde<T> {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Class<T> type;
+
+    public JsonSerde(Class<T> type) {
+        this.type = type;
+    }
+
+    @Override
+    public Serializer<T> serializer() {
+        return (topic, data) -> {
+            if (data == null) return null;
+            try {
+                return objectMapper.writeValueAsBytes(data);
+            } catch (IOException e) {
+                throw new SerializationException("Error serializing " + type.getSimpleName(), e);
+            }
+        };
+    }
+
+    @Override
+    public Deserializer<T> deserializer() {
+        return (topic, data) -> {
+            if (data == null) return null;
+            try {
+                return objectMapper.readValue(data, type);
+            } catch (IOException e) {
+                throw new SerializationException("Error deserializing " + type.getSimpleName(), e);
+            }
+        };
+    }
+}
@@ -0,0 +1,140 @@
+package org.example;
+
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.apache.kafka.streams.processor.api.Processor;
+import org.apache.kafka.streams.processor.api.ProcessorContext;
+import org.apache.kafka.streams.processor.api.Record;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.example.model.RainEpisode;
+import org.example.model.RainState;
+import org.example.model.WeatherMessage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+// Turns a station's readings into rain episodes. An episode starts on a reading above startHumidity and stops
+// once readings fall below stopHumidity (lower, so values around one threshold do not flap) and stay there for
+// suppressionMs of status_timestamp time; a reading back at stopHumidity or above keeps the episode going.
+// A station that sends nothing for silenceMs stops its episode as of its last reading (or its first reading under
+// the threshold), so a station going quiet while raining does not keep an episode open for good.
+// Every check is in status_timestamp time: a punctuator on the wall clock compares the stored timestamps with the
+// latest status_timestamp this task has seen, so it stands still while no reading at all arrives.
+// Only the stations in an episode are kept in the store, keyed by station id, so state is bounded by stations.
+public class RainEpisodeProcessor implements Processor<Long, WeatherMessage, String, RainEpisode> {
+    static final String START = "START";
+    static final String STOP = "STOP";
+    private static final long MIN_PUNCTUATE_INTERVAL_MS = 1000;
+
+    private final String storeName;
+    private final int startHumidity;
+    private final int stopHumidity;
+    private final long suppressionMs;
+    private final long silenceMs;
+    // Latest status_timestamp of any reading of this task, the clock of the punctuator
+    private long latestTimestamp = Long.MIN_VALUE;
+    private ProcessorContext<String, RainEpisode> context;
+    private KeyValueStore<Long, RainState> store;
+
+    public RainEpisodeProcessor(String storeName, int startHumidity, int stopHumidity, long suppressionMs,
+                                long silenceMs) {
+        if (stopHumidity > startHumidity) {
+            throw new IllegalArgumentException("Stop humidity " + stopHumidity + " is above start humidity " + startHumidity);
+        }
+        if (silenceMs <= 0) throw new IllegalArgumentException("Silence period must be positive: " + silenceMs);
+        this.storeName = storeName;
+        this.startHumidity = startHumidity;
+        this.stopHumidity = stopHumidity;
+        this.suppressionMs = suppressionMs;
+        this.silenceMs = silenceMs;
+    }
+
+    @Override
+    public void init(ProcessorContext<String, RainEpisode> context) {
+        this.context = context;
+        this.store = context.getStateStore(storeName);
+        long interval = suppressionMs > 0 ? Math.min(suppressionMs, silenceMs) : silenceMs;
+        // Stops the episodes of stations that went quiet, also while waiting out the suppression window
+        context.schedule(Duration.ofMillis(Math.max(MIN_PUNCTUATE_INTERVAL_MS, interval)), PunctuationType.WALL_CLOCK_TIME,
+                wallClockTime -> stopExpired());
+    }
+
+    @Override
+    public void process(Record<Long, WeatherMessage> record) {
+        WeatherMessage message = record.value();
+        if (record.key() == null || message == null || message.status_timestamp() == null
+                || message.weather() == null || message.weather().humidity() == null) {
+            return;
+        }
+        long stationId = record.key();
+        long timestamp = message.status_timestamp();
+        int humidity = message.weather().humidity();
+        latestTimestamp = Math.max(latestTimestamp, timestamp);
+
+        RainState state = store.get(stationId);
+        if (state != null && timestamp - state.last_seen() >= silenceMs) {
+            // Back after a silence the punctuator has not caught yet, the old episode ended before it
+            stop(stationId, state, endOf(state), record.timestamp());
+            state = null;
+        }
+        if (state == null) {
+            if (humidity > startHumidity) {
+                store.put(stationId, new RainState(timestamp, humidity, 1L, null, timestamp));
+                forward(record.timestamp(), new RainEpisode(stationId, START, timestamp, null, null, humidity, 1L));
+            }
+            return;
+        }
+
+        int peak = Math.max(state.peak_humidity(), humidity);
+        long readings = state.readings() + 1;
+        long lastSeen = Math.max(state.last_seen(), timestamp);
+        if (humidity >= stopHumidity) {
+            store.put(stationId, new RainState(state.started_at(), peak, readings, null, lastSeen));
+            return;
+        }
+        long belowSince = state.below_since() == null ? timestamp : state.below_since();
+        RainState updated = new RainState(state.started_at(), peak, readings, belowSince, lastSeen);
+        if (timestamp - belowSince >= suppressionMs) {
+            stop(stationId, updated, belowSince, record.timestamp());
+        } else {
+            store.put(stationId, updated);
+        }
+    }
+
+    private void stopExpired() {
+        if (latestTimestamp == Long.MIN_VALUE) return; // no reading since the task started
+        long now = latestTimestamp;
+        List<KeyValue<Long, RainState>> expired = new ArrayList<>();
+        try (KeyValueIterator<Long, RainState> states = store.all()) {
+            while (states.hasNext()) {
+                KeyValue<Long, RainState> entry = states.next();
+                RainState state = entry.value;
+                if (now - state.last_seen() >= silenceMs
+                        || (state.below_since() != null && now - state.below_since() >= suppressionMs)) {
+                    expired.add(entry);
+                }
+            }
+        }
+        // Deleted after the iterator is closed
+        for (KeyValue<Long, RainState> entry : expired) {
+            stop(entry.key, entry.value, endOf(entry.value), now);
+        }
+    }
+
+    // The first reading under the stop threshold, or the last reading of a station that went quiet while raining
+    private static long endOf(RainState state) {
+        return state.below_since() != null ? state.below_since() : state.last_seen();
+    }
+
+    private void stop(long stationId, RainState state, long endedAt, long recordTimestamp) {
+        store.delete(stationId);
+        forward(recordTimestamp, new RainEpisode(stationId, STOP, state.started_at(), endedAt,
+                endedAt - state.started_at(), state.peak_humidity(), state.readings()));
+    }
+
+    private void forward(long recordTimestamp, RainEpisode episode) {
+        context.forward(new Record<>(String.valueOf(episode.station_id()), episode, recordTimestamp));
+    }
+}
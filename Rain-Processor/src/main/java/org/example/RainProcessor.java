@@ -1,53 +1,94 @@
 package org.example;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.Serdes;
 import org.apache.kafka.streams.KafkaStreams;
 import org.apache.kafka.streams.StreamsBuilder;
 import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.Topology;
+import org.apache.kafka.streams.errors.LogAndContinueExceptionHandler;
+import org.apache.kafka.streams.kstream.Consumed;
+import org.apache.kafka.streams.kstream.Produced;
+import org.apache.kafka.streams.kstream.Repartitioned;
+import org.apache.kafka.streams.state.Stores;
+import org.example.model.RainEpisode;
 import org.example.model.RainMessage;
+import org.example.model.RainState;
+import org.example.model.WeatherMessage;
 
 import java.time.Duration;
 import java.util.Properties;
 import java.util.concurrent.CountDownLatch;
 
 public class RainProcessor {
-    private final ObjectMapper objectMapper;
+    static final String INPUT_TOPIC = "Weather-Metrics";
+    static final String OUTPUT_TOPIC = "Raining";
+    static final String EPISODES_TOPIC = "Rain-Episodes";
+    static final String EPISODE_STORE = "rain-episodes";
+    static final int DEFAULT_START_HUMIDITY = 70;
+    static final int DEFAULT_STOP_HUMIDITY = 60;
+    static final long DEFAULT_SILENCE_MS = 600_000;
 
-    public RainProcessor() {
-        this.objectMapper = new ObjectMapper();
+    // Each record is deserialized once, filtered and mapped as a WeatherMessage and written by a typed serializer
+    public static Topology topology() {
+        StreamsBuilder builder = new StreamsBuilder();
+        // Weather-Metrics values are JSON or Avro, see WeatherMessageSerde
+        builder.stream(INPUT_TOPIC, Consumed.with(Serdes.String(), new WeatherMessageSerde()))
+                .filter((key, value) -> value != null && value.weather() != null
+                        && value.weather().humidity() != null && value.weather().humidity() > DEFAULT_START_HUMIDITY)
+                .mapValues(value -> new RainMessage(value.station_id(), value.weather().humidity()))
+                .to(OUTPUT_TOPIC, Produced.with(Serdes.String(), new JsonSerde<>(RainMessage.class)));
+        return builder.build();
     }
 
-    public void detect (){
+    // Only the start and stop of each station's rain episodes, see RainEpisodeProcessor
+    public static Topology episodeTopology(int startHumidity, int stopHumidity, long suppressionMs, long silenceMs) {
+        StreamsBuilder builder = new StreamsBuilder();
+        builder.addStateStore(Stores.keyValueStoreBuilder(
+                Stores.persistentKeyValueStore(EPISODE_STORE), Serdes.Long(), new JsonSerde<>(RainState.class)));
+        builder.stream(INPUT_TOPIC, Consumed.with(Serdes.String(), new WeatherMessageSerde()))
+                .filter((key, value) -> isComplete(value))
+                // Stations send unkeyed, an episode needs all readings of its station in one task.
+                // Avro sets its own fingerprint header, also on records that arrived as Avro.
+                .selectKey((key, value) -> value.station_id())
+                .repartition(Repartitioned.with(Serdes.Long(), new WeatherMessageSerde(WeatherMessageSerde.Format.AVRO))
+                        .withName("rain-by-station"))
+                .process(() -> new RainEpisodeProcessor(EPISODE_STORE, startHumidity, stopHumidity, suppressionMs, silenceMs),
+                        EPISODE_STORE)
+                .to(EPISODES_TOPIC, Produced.with(Serdes.String(), new JsonSerde<>(RainEpisode.class)));
+        return builder.build();
+    }
+
+    // The Avro encoding of the repartition topic has no optional fields
+    private static boolean isComplete(WeatherMessage message) {
+        return message != null && message.station_id() != null && message.s_no() != null
+                && message.battery_status() != null && message.status_timestamp() != null && message.weather() != null
+                && message.weather().humidity() != null && message.weather().temperature() != null
+                && message.weather().wind_speed() != null;
+    }
+
+    public static Properties properties() {
         Properties props = new Properties();
         props.put(StreamsConfig.APPLICATION_ID_CONFIG, "raining-processor");
         props.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, System.getenv().getOrDefault("BOOTSTRAP_SERVERS", "kafka:9092"));
         props.put(StreamsConfig.DEFAULT_KEY_SERDE_CLASS_CONFIG, Serdes.String().getClass());
         props.put(StreamsConfig.DEFAULT_VALUE_SERDE_CLASS_CONFIG, Serdes.String().getClass());
         props.setProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, "gzip");
+        // Skip records that are neither JSON nor Avro weather messages instead of stopping the stream
+        props.put(StreamsConfig.DEFAULT_DESERIALIZATION_EXCEPTION_HANDLER_CLASS_CONFIG, LogAndContinueExceptionHandler.class);
+        return props;
+    }
 
-        StreamsBuilder builder = new StreamsBuilder();
-        builder.stream("Weather-Metrics")
-                .filter((key, value) -> {
-                    try { return parseHumidity(value) > 70; }
-                    catch (Exception e) { return false; }
-                })
-                .mapValues(value -> {
-                    try {
-                        Long stationID = parseStationID(value);
-                        Integer humidity = parseHumidity(value);
-                        RainMessage message = new RainMessage(stationID, humidity);
-                        return this.objectMapper.writeValueAsString(message);
-                    } catch (Exception e) {
-                        System.err.println("Error parsing value: " + e.getMessage());
-                        return null;
-                    }
-                })
-                .to("Raining");
-
-        try(KafkaStreams streams = new KafkaStreams(builder.build(), props)) {
+    // RAIN_MODE=episodes writes rain episodes to Rain-Episodes instead of every rainy reading to Raining
+    public void detect (){
+        Topology topology = "episodes".equalsIgnoreCase(System.getenv().getOrDefault("RAIN_MODE", "alerts"))
+                ? episodeTopology(
+                        Integer.parseInt(System.getenv().getOrDefault("RAIN_START_HUMIDITY", String.valueOf(DEFAULT_START_HUMIDITY))),
+                        Integer.parseInt(System.getenv().getOrDefault("RAIN_STOP_HUMIDITY", String.valueOf(DEFAULT_STOP_HUMIDITY))),
+                        Long.parseLong(System.getenv().getOrDefault("RAIN_SUPPRESSION_MS", "0")),
+                        Long.parseLong(System.getenv().getOrDefault("RAIN_SILENCE_MS", String.valueOf(DEFAULT_SILENCE_MS))))
+                : topology();
+        try(KafkaStreams streams = new KafkaStreams(topology, properties())) {
             CountDownLatch latch = new CountDownLatch(1);
 
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -63,28 +104,8 @@ public class RainProcessor {
         }
     }
 
-    private Long parseStationID(Object record) {
-        try {
-            JsonNode root = this.objectMapper.readTree(record.toString());
-            return root.path("station_id").asLong();
-        } catch (Exception e) {
-            System.err.println("Error parsing station ID: " + e.getMessage());
-            return 0L;
-        }
-    }
-
-    private Integer parseHumidity(Object record) {
-        try {
-            JsonNode root = this.objectMapper.readTree(record.toString());
-            return root.path("weather").path("humidity").asInt();
-        } catch (Exception e) {
-            System.err.println("Error parsing humidity: " + e.getMessage());
-            return 0;
-        }
-    }
-
     public static void main(String[] args) {
         RainProcessor rainingProcessor = new RainProcessor();
         rainingProcessor.detect();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,155 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serializer;
+import org.example.model.WeatherData;
+import org.example.model.WeatherMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+// Value format of the Weather-Metrics topic, every module that reads or writes the topic keeps a copy.
+// A record is either JSON without headers, or the Avro binary encoding of weather_status.avsc with the
+// schema's 64-bit parsing fingerprint in the FINGERPRINT_HEADER header. Readers accept both, so producers
+// can be switched one by one with WEATHER_METRICS_FORMAT=avro once every reader is deployed.
+public class WeatherMessageSerde implements Serde<WeatherMessage> {
+
+    public enum Format { JSON, AVRO }
+
+    public static final String FINGERPRINT_HEADER = "weather.schema.fingerprint";
+    private static final byte[] FINGERPRINT = fingerprint();
+
+    private final Format format;
+
+    // Writes the format of WEATHER_METRICS_FORMAT, json unless set
+    public WeatherMessageSerde() {
+        this(Format.valueOf(System.getenv().getOrDefault("WEATHER_METRICS_FORMAT", "json").toUpperCase()));
+    }
+
+    public WeatherMessageSerde(Format format) {
+        this.format = format;
+    }
+
+    @Override
+    public Serializer<WeatherMessage> serializer() {
+        return new WeatherMessageSerializer(format);
+    }
+
+    @Override
+    public Deserializer<WeatherMessage> deserializer() {
+        return new WeatherMessageDeserializer();
+    }
+
+    public static class WeatherMessageSerializer implements Serializer<WeatherMessage> {
+        private final Format format;
+        private final ObjectMapper objectMapper = new ObjectMapper();
+
+        public WeatherMessageSerializer(Format format) {
+            this.format = format;
+        }
+
+        @Override
+        public byte[] serialize(String topic, WeatherMessage data) {
+            if (format == Format.AVRO) {
+                throw new SerializationException("Avro weather messages need record headers for the schema fingerprint");
+            }
+            return serialize(topic, null, data);
+        }
+
+        @Override
+        public byte[] serialize(String topic, Headers headers, WeatherMessage data) {
+            if (data == null) return null;
+            try {
+                if (format == Format.JSON) return objectMapper.writeValueAsBytes(data);
+                headers.remove(FINGERPRINT_HEADER);
+                headers.add(FINGERPRINT_HEADER, FINGERPRINT);
+                return encode(data);
+            } catch (IOException e) {
+                throw new SerializationException("Error serializing weather message", e);
+            }
+        }
+    }
+
+    public static class WeatherMessageDeserializer implements Deserializer<WeatherMessage> {
+        private final ObjectMapper objectMapper = new ObjectMapper();
+
+        @Override
+        public WeatherMessage deserialize(String topic, byte[] data) {
+            return deserialize(topic, null, data);
+        }
+
+        @Override
+        public WeatherMessage deserialize(String topic, Headers headers, byte[] data) {
+            if (data == null) return null;
+            Header fingerprint = headers == null ? null : headers.lastHeader(FINGERPRINT_HEADER);
+            try {
+                if (fingerprint == null) return objectMapper.readValue(data, WeatherMessage.class);
+                if (!Arrays.equals(fingerprint.value(), FINGERPRINT)) {
+                    throw new SerializationException("Unknown weather message schema " + HexFormat.of().formatHex(fingerprint.value()));
+                }
+                return decode(data);
+            } catch (IOException e) {
+                throw new SerializationException("Error deserializing weather message", e);
+            }
+        }
+    }
+
+    // Fields in the order of weather_status.avsc, any change to the schema changes the fingerprint
+    private static byte[] encode(WeatherMessage message) throws IOException {
+        WeatherData weather = require(message.weather(), "weather");
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+        encoder.writeLong(require(message.station_id(), "station_id"));
+        encoder.writeLong(require(message.s_no(), "s_no"));
+        encoder.writeString(require(message.battery_status(), "battery_status"));
+        encoder.writeLong(require(message.status_timestamp(), "status_timestamp"));
+        encoder.writeInt(require(weather.humidity(), "humidity"));
+        encoder.writeInt(require(weather.temperature(), "temperature"));
+        encoder.writeInt(require(weather.wind_speed(), "wind_speed"));
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    private static WeatherMessage decode(byte[] data) throws IOException {
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(data, null);
+        WeatherMessage message = new WeatherMessage(
+                decoder.readLong(),
+                decoder.readLong(),
+                decoder.readString(),
+                decoder.readLong(),
+                new WeatherData(decoder.readInt(), decoder.readInt(), decoder.readInt())
+        );
+        if (!decoder.isEnd()) throw new SerializationException("Trailing bytes after the weather message");
+        return message;
+    }
+
+    // The schema has no optional fields
+    private static <T> T require(T value, String field) {
+        if (value == null) throw new SerializationException("Avro weather messages need " + field);
+        return value;
+    }
+
+    private static byte[] fingerprint() {
+        try (InputStream schema = WeatherMessageSerde.class.getClassLoader().getResourceAsStream("weather_status.avsc")) {
+            long fingerprint = SchemaNormalization.parsingFingerprint64(new Schema.Parser().parse(schema));
+            return ByteBuffer.allocate(Long.BYTES).putLong(fingerprint).array();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load Avro schema", e);
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package org.example.model;
+
+// Transition of a station's rain episode: START when it begins, STOP with the summary when it ends.
+// ended_at and duration_ms are only set on STOP.
+public record RainEpisode(Long station_id, String event, Long started_at, Long ended_at, Long duration_ms,
+                          Integer peak_humidity, Long readings) {}
@@ -0,0 +1,6 @@
+package org.example.model;
+
+// Episode in progress for a station, stored until it stops. below_since is the status_timestamp of the first
+// reading under the stop threshold while waiting out the suppression window, null otherwise. last_seen is the
+// status_timestamp of the station's latest reading.
+public record RainState(Long started_at, Integer peak_humidity, Long readings, Long below_since, Long last_seen) {}
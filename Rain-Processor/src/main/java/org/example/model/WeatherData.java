@@ -0,0 +1,3 @@
+package org.example.model;
+
+public record WeatherData (Integer humidity, Integer temperature, Integer wind_speed) {}
\ No newline at end of file
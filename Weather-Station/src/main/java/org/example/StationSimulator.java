@@ -0,0 +1,211 @@
+package org.example;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.example.model.WeatherMessage;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Load generator for Central-Station: many virtual stations in one process, sending through one shared producer.
+// Stations are scheduled on a hashed timing wheel turned by a single thread, each tick sends for the stations
+// whose deadline fell in it, so thousands of stations cost a few primitive arrays instead of a task or thread each.
+// Every station behaves like a WeatherStation: its own s_no starting at 1, dropped readings, the same battery mix.
+// Readings are keyed by station id by default, so a skewed key distribution skews the partitions as well and each
+// station's readings stay in order on one partition.
+public class StationSimulator {
+    private static final int WHEEL_SLOTS = 512; // power of two
+    private static final int NO_STATION = -1;
+    private static final double ZIPF_EXPONENT = 0.99;
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    public enum KeyDistribution {
+        // Every station sends at the configured rate
+        UNIFORM,
+        // Station k sends in proportion to 1 / k^0.99, the total rate stays stations * rate
+        ZIPFIAN
+    }
+
+    private final Producer<String, WeatherMessage> producer;
+    private final int stations;
+    private final long firstStationId;
+    private final double dropProbability;
+    private final boolean keyed;
+    private final long tickNanos;
+    private final Random random = new Random();
+
+    // Per station
+    private final long[] sNos;
+    private final long[] periodNanos;
+    private final long[] deadlines; // nanoseconds since start
+    private final int[] nextInSlot;
+    private final int[] wheel; // first station of each slot's list
+
+    private volatile boolean running = true;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder acknowledged = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private long dropped;
+    private long maxLagNanos;
+
+    public StationSimulator(Producer<String, WeatherMessage> producer, int stations, long firstStationId,
+                            double ratePerStation, double dropProbability, KeyDistribution distribution, boolean keyed,
+                            long tickMs) {
+        if (stations <= 0) throw new IllegalArgumentException("Station count must be positive: " + stations);
+        if (ratePerStation <= 0) throw new IllegalArgumentException("Rate per station must be positive: " + ratePerStation);
+        this.producer = producer;
+        this.stations = stations;
+        this.firstStationId = firstStationId;
+        this.dropProbability = dropProbability;
+        this.keyed = keyed;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+        this.sNos = new long[stations];
+        this.periodNanos = periods(stations, ratePerStation, distribution);
+        this.deadlines = new long[stations];
+        this.nextInSlot = new int[stations];
+        this.wheel = new int[WHEEL_SLOTS];
+        Arrays.fill(wheel, NO_STATION);
+        // Random first deadlines, so the stations do not all send in the same tick
+        for (int station = 0; station < stations; station++) {
+            deadlines[station] = (long) (random.nextDouble() * periodNanos[station]);
+            schedule(station, 0);
+        }
+    }
+
+    private static long[] periods(int stations, double ratePerStation, KeyDistribution distribution) {
+        long[] periods = new long[stations];
+        double[] weights = new double[stations];
+        double total = 0;
+        for (int station = 0; station < stations; station++) {
+            weights[station] = distribution == KeyDistribution.ZIPFIAN ? 1 / Math.pow(station + 1, ZIPF_EXPONENT) : 1;
+            total += weights[station];
+        }
+        for (int station = 0; station < stations; station++) {
+            double rate = ratePerStation * stations * weights[station] / total;
+            periods[station] = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+        }
+        return periods;
+    }
+
+    // Puts the station in the slot of the tick its deadline falls in, or the next tick when that one is past
+    private void schedule(int station, long currentTick) {
+        long tick = Math.max(currentTick + 1, deadlines[station] / tickNanos);
+        int slot = (int) (tick & (WHEEL_SLOTS - 1));
+        nextInSlot[station] = wheel[slot];
+        wheel[slot] = station;
+    }
+
+    // Turns the wheel until stop() or the duration ends, 0 runs until stopped
+    public void run(long durationNanos) {
+        long start = System.nanoTime();
+        long nextReport = REPORT_INTERVAL_NANOS;
+        long lastSent = 0;
+        for (long tick = 0; running; tick++) {
+            long tickEnd = (tick + 1) * tickNanos;
+            if (durationNanos > 0 && tickEnd > durationNanos) break;
+            long lag = System.nanoTime() - start - tickEnd;
+            if (lag < 0) {
+                LockSupport.parkNanos(-lag);
+            } else {
+                // Sending fell behind, e.g. the producer's buffer is full, later ticks run back to back to catch up
+                maxLagNanos = Math.max(maxLagNanos, lag);
+            }
+
+            int slot = (int) (tick & (WHEEL_SLOTS - 1));
+            int station = wheel[slot];
+            wheel[slot] = NO_STATION;
+            while (station != NO_STATION) {
+                int next = nextInSlot[station];
+                // Stations a full turn or more ahead go back in the same slot
+                while (deadlines[station] < tickEnd) {
+                    emit(station);
+                    deadlines[station] += periodNanos[station];
+                }
+                schedule(station, tick);
+                station = next;
+            }
+
+            if (tickEnd >= nextReport) {
+                long total = sent.sum();
+                report(tickEnd, (total - lastSent) * 1e9 / REPORT_INTERVAL_NANOS);
+                lastSent = total;
+                nextReport += REPORT_INTERVAL_NANOS;
+            }
+        }
+    }
+
+    private void emit(int station) {
+        // Like a WeatherStation, a dropped reading does not use up a sequence number
+        if (random.nextDouble() < dropProbability) {
+            dropped++;
+            return;
+        }
+        long stationId = firstStationId + station;
+        WeatherMessage message = WeatherStation.randomMessage(stationId, ++sNos[station], random);
+        // Without a key, like a real station, the producer spreads the batches over the partitions and readings of
+        // one station can overtake each other
+        String key = keyed ? Long.toString(stationId) : null;
+        try {
+            producer.send(new ProducerRecord<>(WeatherStation.TOPIC, key, message), (metadata, e) -> {
+                if (e == null) {
+                    acknowledged.increment();
+                } else {
+                    failed.increment();
+                }
+            });
+            sent.increment();
+        } catch (KafkaException e) {
+            // Serialization errors and a closed producer are thrown instead of completing the callback
+            failed.increment();
+        }
+    }
+
+    private void report(long elapsedNanos, double ratePerSecond) {
+        System.out.printf("Simulated %d stations for %ds: sent=%d acknowledged=%d failed=%d dropped=%d rate=%.0f/s max lag=%dms%n",
+                stations, TimeUnit.NANOSECONDS.toSeconds(elapsedNanos), sent.sum(), acknowledged.sum(), failed.sum(),
+                dropped, ratePerSecond, TimeUnit.NANOSECONDS.toMillis(maxLagNanos));
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    public static void main(String[] args) {
+        int stations = Integer.parseInt(System.getenv("SIMULATOR_STATIONS"));
+        long firstStationId = Long.parseLong(System.getenv().getOrDefault("SIMULATOR_FIRST_STATION_ID", "1"));
+        double rate = Double.parseDouble(System.getenv().getOrDefault("SIMULATOR_RATE_PER_STATION", "1"));
+        double dropProbability = Double.parseDouble(System.getenv().getOrDefault(
+                "SIMULATOR_DROP_PROBABILITY", String.valueOf(WeatherStation.DROP_PROBABILITY)));
+        KeyDistribution distribution = KeyDistribution.valueOf(
+                System.getenv().getOrDefault("SIMULATOR_KEY_DISTRIBUTION", "uniform").toUpperCase());
+        boolean keyed = Boolean.parseBoolean(System.getenv().getOrDefault("SIMULATOR_KEYED", "true"));
+        long tickMs = Long.parseLong(System.getenv().getOrDefault("SIMULATOR_TICK_MS", "10"));
+        long durationSeconds = Long.parseLong(System.getenv().getOrDefault("SIMULATOR_DURATION_SECONDS", "0"));
+
+        Producer<String, WeatherMessage> producer = WeatherStation.createProducer();
+        StationSimulator simulator = new StationSimulator(
+                producer, stations, firstStationId, rate, dropProbability, distribution, keyed, tickMs);
+        Thread wheel = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            simulator.stop();
+            try {
+                wheel.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+
+        System.out.printf("Simulating %d stations from id %d at %s readings/s each (%s, %s), dropping %.0f%%%n",
+                stations, firstStationId, rate, distribution, keyed ? "keyed" : "unkeyed", dropProbability * 100);
+        long start = System.nanoTime();
+        simulator.run(TimeUnit.SECONDS.toNanos(durationSeconds));
+        // Waits for what is still batched, so the last report counts it
+        producer.close(Duration.ofSeconds(5));
+        simulator.report(System.nanoTime() - start, simulator.sent.sum() * 1e9 / Math.max(1, System.nanoTime() - start));
+    }
+}
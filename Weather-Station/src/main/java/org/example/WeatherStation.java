@@ -1,52 +1,76 @@
 package org.example;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.example.model.WeatherData;
 import org.example.model.WeatherMessage;
 
+import java.time.Duration;
 import java.util.concurrent.*;
 import java.util.Properties;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class WeatherStation {
+    static final String TOPIC = "Weather-Metrics";
+    static final double DROP_PROBABILITY = 0.10;
+
     private final Long stationID;
     private final AtomicLong ID_GENERATOR;
     private final ScheduledExecutorService SCHEDULER;
     private final Random RANDOM;
-    private final ObjectMapper objectMapper;
+    private final Producer<String, WeatherMessage> producer;
 
     public WeatherStation() {
         this.stationID = getStationID();
         this.SCHEDULER = Executors.newScheduledThreadPool(1);
         this.ID_GENERATOR = new AtomicLong(0);
         this.RANDOM = new Random();
-        this.objectMapper = new ObjectMapper();
+        // One producer for the whole process, connections and metadata are reused between messages
+        this.producer = createProducer();
     }
 
-    public void emit() {
+    // Shared with StationSimulator, batching settings only matter when many messages are in flight
+    static Producer<String, WeatherMessage> createProducer() {
         Properties props = new Properties();
-        props.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "kafka:9092");
-        props.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        props.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        props.setProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, "gzip");
+        props.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, System.getenv().getOrDefault("BOOTSTRAP_SERVERS", "kafka:9092"));
+        props.setProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        props.setProperty(ProducerConfig.LINGER_MS_CONFIG, System.getenv().getOrDefault("PRODUCER_LINGER_MS", "20"));
+        props.setProperty(ProducerConfig.BATCH_SIZE_CONFIG, System.getenv().getOrDefault("PRODUCER_BATCH_BYTES", "65536"));
+        return new KafkaProducer<>(props, new StringSerializer(), new WeatherMessageSerde().serializer());
+    }
 
+    public void emit() {
         this.SCHEDULER.scheduleAtFixedRate(() -> {
-            try (KafkaProducer<String, String> producer = new KafkaProducer<>(props)) {
-                String message = getMessage();
+            try {
+                WeatherMessage message = getMessage();
                 if (message != null) {
-                    ProducerRecord<String, String> record = new ProducerRecord<>("Weather-Metrics", message);
-                    producer.send(record);
-                    System.out.println("Message sent: " + message);
+                    ProducerRecord<String, WeatherMessage> record = new ProducerRecord<>(TOPIC, message);
+                    producer.send(record, (metadata, e) -> {
+                        if (e == null) {
+                            System.out.println("Message sent: " + message);
+                        } else {
+                            System.err.println("Error sending message: " + e.getMessage());
+                        }
+                    });
                 }
+            } catch (SerializationException e) {
+                // Thrown from send, it would cancel every following run of this task
+                System.err.println("Error serializing message: " + e.getMessage());
             }
         }, 0, 1, TimeUnit.SECONDS);
     }
 
+    // Sends what is still batched before the process exits
+    public void close() {
+        this.SCHEDULER.shutdown();
+        producer.close(Duration.ofSeconds(5));
+    }
+
     private Long getStationID(){
         String stationName = System.getenv("stationName");
 
@@ -62,16 +86,18 @@ public class WeatherStation {
         return null;
     }
 
-    private String getMessage() {
+    private WeatherMessage getMessage() {
         // 10% for dropping message
-        if (this.RANDOM.nextDouble() < 0.10) {
+        if (this.RANDOM.nextDouble() < DROP_PROBABILITY) {
             return null;
         }
 
-        Long messageID = this.ID_GENERATOR.incrementAndGet();
+        return randomMessage(this.stationID, this.ID_GENERATOR.incrementAndGet(), this.RANDOM);
+    }
 
+    static WeatherMessage randomMessage(Long stationID, long messageID, Random random) {
         // 30% for LOW, 40% for MEDIUM, 30% for HIGH
-        double p = RANDOM.nextDouble();
+        double p = random.nextDouble();
         String batteryStatus =
             p < 0.3 ? BatteryStatus.LOW.name() :
             p < 0.7 ? BatteryStatus.MEDIUM.name() :
@@ -79,23 +105,22 @@ public class WeatherStation {
 
         long timestamp = System.currentTimeMillis();
 
-        int humidity    = RANDOM.nextInt(100);
+        int humidity    = random.nextInt(100);
         int temperature = 100;
         int windSpeed   = 13;
 
         WeatherData weatherData = new WeatherData(humidity, temperature, windSpeed);
-        WeatherMessage weatherMessage = new WeatherMessage(this.stationID, messageID, batteryStatus, timestamp, weatherData);
-
-        try {
-            return this.objectMapper.writeValueAsString(weatherMessage);
-        } catch (Exception e) {
-            System.err.println("Error serializing message: " + e.getMessage());
-            return null;
-        }
+        return new WeatherMessage(stationID, messageID, batteryStatus, timestamp, weatherData);
     }
 
+    // SIMULATOR_STATIONS switches to simulating that many stations in this process, see StationSimulator
     public static void main(String[] args) {
+        if (System.getenv("SIMULATOR_STATIONS") != null) {
+            StationSimulator.main(args);
+            return;
+        }
         WeatherStation weatherStation = new WeatherStation();
+        Runtime.getRuntime().addShutdownHook(new Thread(weatherStation::close));
         weatherStation.emit();
     }
-}
\ No newline at end of file
+}